@@ -1,7 +1,11 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.ResponseBodyCache;
+import com.hmdp.utils.ResponseCacheInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -13,6 +17,13 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ResponseBodyCache responseBodyCache;
+    /**
+     * 运维接口的管理令牌，为空时运维接口不可用
+     */
+    @Value("${hmdp.admin.token:}")
+    private String adminToken;
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -23,9 +34,15 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/blog/hot",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/cache/geo/reconcile"
                 ).order(1);
+        // 运维接口不依赖用户登录，只校验管理令牌
+        registry.addInterceptor(new AdminInterceptor(adminToken))
+                .addPathPatterns("/cache/geo/reconcile").order(1);
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
                 .addPathPatterns("/**").order(0);
+        registry.addInterceptor(new ResponseCacheInterceptor(responseBodyCache))
+                .addPathPatterns("/**").order(2);
     }
 }
@@ -0,0 +1,60 @@
+package com.hmdp.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.ResponseBodyCache;
+import com.hmdp.utils.ResponseCache;
+import com.hmdp.utils.ResponseCacheInterceptor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 把{@link ResponseCache}接口成功的响应序列化后写入响应缓存
+ */
+@Slf4j
+@RestControllerAdvice
+public class ResponseCacheAdvice implements ResponseBodyAdvice<Object> {
+    @Resource
+    private ResponseBodyCache responseBodyCache;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.hasMethodAnnotation(ResponseCache.class);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(body instanceof Result) || !Boolean.TRUE.equals(((Result) body).getSuccess())
+                || !(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+        Object key = servletRequest.getAttribute(ResponseCacheInterceptor.CACHE_KEY_ATTRIBUTE);
+        if (key == null) {
+            return body;
+        }
+        try {
+            ResponseCache annotation = returnType.getMethodAnnotation(ResponseCache.class);
+            long generation = (Long) servletRequest.getAttribute(ResponseCacheInterceptor.GENERATION_ATTRIBUTE);
+            responseBodyCache.put((String) key, objectMapper.writeValueAsBytes(body), annotation.ttlSeconds(), generation);
+        } catch (JsonProcessingException e) {
+            log.warn("序列化响应失败，key:{}", key, e);
+        }
+        return body;
+    }
+}
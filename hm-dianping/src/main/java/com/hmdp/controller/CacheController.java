@@ -0,0 +1,105 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CachePenetrationGuard;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.CacheWarmUp;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ResponseBodyCache;
+import com.hmdp.utils.ShopGeoMaintainer;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+    @Resource
+    private CachePenetrationGuard cachePenetrationGuard;
+    @Resource
+    private CacheWarmUp cacheWarmUp;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private ResponseBodyCache responseBodyCache;
+    @Resource
+    private ShopGeoMaintainer shopGeoMaintainer;
+
+    /**
+     * 查询缓存重建线程池的运行指标
+     * @return 队列深度、排队耗时、拒绝数等
+     */
+    @GetMapping("/rebuild/stats")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheRebuildExecutor.stats());
+    }
+
+    /**
+     * 查询布隆过滤器的运行指标
+     * @return 各过滤器的大小、插入数、检查数和拦截数
+     */
+    @GetMapping("/bloom/stats")
+    public Result queryBloomStats() {
+        return Result.ok(cachePenetrationGuard.stats());
+    }
+
+    /**
+     * 查询启动预热进度
+     * @return 当前阶段、各类数据已预热数量和耗时
+     */
+    @GetMapping("/warm-up/stats")
+    public Result queryWarmUpStats() {
+        return Result.ok(cacheWarmUp.stats());
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key、本节点窗口内的估计访问次数和热点标记的过期时间
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 查询本节点响应缓存的命中情况
+     * @return 条数、命中数和未命中数
+     */
+    @GetMapping("/response/stats")
+    public Result queryResponseStats() {
+        return Result.ok(responseBodyCache.stats());
+    }
+
+    /**
+     * 查询最近一次商铺GEO校对的结果
+     * @return 检查数、补齐数、修正数、删除数和耗时
+     */
+    @GetMapping("/geo/stats")
+    public Result queryGeoStats() {
+        return Result.ok(shopGeoMaintainer.stats());
+    }
+
+    /**
+     * 提交一次商铺GEO校对，用于批量导入商铺后；需要在请求头 X-Admin-Token 中携带管理令牌
+     * @return 提交结果，校对在后台执行，完成后通过 /cache/geo/stats 查看
+     */
+    @PostMapping("/geo/reconcile")
+    public Result reconcileGeo() {
+        if (!shopGeoMaintainer.submitReconcile()) {
+            return Result.fail("已有校对任务等待执行");
+        }
+        return Result.ok();
+    }
+}
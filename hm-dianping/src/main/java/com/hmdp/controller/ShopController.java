@@ -1,16 +1,17 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.NearbyShopQuery;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ResponseCache;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -32,6 +33,7 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
+    @ResponseCache(prefix = CACHE_SHOP_KEY, params = "id")
     public Result queryShopById(@PathVariable("id") Long id) {
         return shopService.queryById(id);
     }
@@ -83,6 +85,36 @@ public class ShopController {
         return shopService.queryShopByType(typeId,current,x,y);
     }
 
+    /**
+     * 根据商铺类型按距离滚动分页查询商铺信息
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeScroll(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByTypeScroll(typeId, x, y, cursor);
+    }
+
+    /**
+     * 按距离、评分、均价、销量、营业时间过滤和排序的附近商铺搜索
+     * <p>
+     * 带过滤条件或不按距离排序时，只在半径内最近的 hmdp.shop.geo.max-candidates 个商铺中过滤、排序，
+     * 半径内商铺更多时结果是这些候选中的最优者；本地索引和redis GEO两种查询方式的候选范围相同
+     * </p>
+     * @param query 搜索条件，typeId、x、y必填
+     * @return 商铺列表
+     */
+    @GetMapping("/nearby")
+    public Result queryNearbyShops(NearbyShopQuery query) {
+        return shopService.queryNearbyShops(query);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -94,11 +126,20 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 输入联想，返回以输入内容开头的商铺名称和商圈
+     * @param prefix 已输入的内容
+     * @param limit 返回数量
+     * @return 联想词列表
+     */
+    @GetMapping("/suggest")
+    public Result querySuggestions(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        return shopService.querySuggestions(prefix, limit);
     }
 }
@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.List;
+
+@Data
+@Accessors(chain = true)
+public class CursorResult {
+    private List<?> list;
+    /**
+     * 下一页的游标，没有下一页时为null
+     */
+    private String cursor;
+}
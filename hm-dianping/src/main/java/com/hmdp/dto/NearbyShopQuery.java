@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class NearbyShopQuery {
+    private Integer typeId;
+    private Double x;
+    private Double y;
+    /**
+     * 搜索半径(m)，不传时使用默认半径
+     */
+    private Double radius;
+    /**
+     * 最低评分，与tb_shop.score的取值相同，如45代表4.5分
+     */
+    private Integer minScore;
+    private Long minPrice;
+    private Long maxPrice;
+    private Integer minSold;
+    /**
+     * 只看营业中的商铺
+     */
+    private Boolean openNow;
+    /**
+     * 排序：distance(默认，由近到远)、score(评分从高到低)、sold(销量从高到低)、price(均价从低到高)
+     */
+    private String sortBy;
+    private Integer current;
+}
@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+@Data
+@Accessors(chain = true)
+public class ShopSuggestion {
+    private String text;
+    /**
+     * shop：商铺名称；area：商圈
+     */
+    private String type;
+    /**
+     * 商铺名称对应的商铺id，同名商铺取权重最高的一个；商圈为null
+     */
+    private Long shopId;
+}
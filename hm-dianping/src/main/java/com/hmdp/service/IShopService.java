@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.NearbyShopQuery;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
@@ -19,4 +20,12 @@ public interface IShopService extends IService<Shop> {
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor);
+
+    Result queryNearbyShops(NearbyShopQuery query);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result querySuggestions(String prefix, Integer limit);
 }
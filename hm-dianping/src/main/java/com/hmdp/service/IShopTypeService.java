@@ -15,4 +15,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryList();
+
+    /**
+     * 查询店铺类型列表，返回已序列化的响应
+     */
+    byte[] queryListResponse();
 }
@@ -1,25 +1,39 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.codec.Base64;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.NearbyShopQuery;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSuggestion;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidationOutbox;
+import com.hmdp.utils.CachePenetrationGuard;
+import com.hmdp.utils.GeoGrid;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopFacet;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoMaintainer;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopSuggester;
+import com.hmdp.utils.SuggestTrie;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
+import org.springframework.data.redis.connection.DefaultTuple;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -27,11 +41,14 @@ import org.springframework.web.bind.annotation.RequestMapping;
 
 import javax.annotation.Resource;
 
-import java.time.LocalDateTime;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -47,107 +64,103 @@ import static com.hmdp.utils.RedisConstants.*;
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private CachePenetrationGuard cachePenetrationGuard;
+    @Resource
+    private CacheInvalidationOutbox cacheInvalidationOutbox;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopGeoMaintainer shopGeoMaintainer;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+    @Resource
+    private ShopSuggester shopSuggester;
+    /**
+     * 附近商铺的搜索半径(m)
+     */
+    @Value("${hmdp.shop.geo.radius:5000}")
+    private double geoRadius;
+    /**
+     * 附近搜索允许指定的最大半径(m)
+     */
+    @Value("${hmdp.shop.geo.max-radius:20000}")
+    private double geoMaxRadius;
+    /**
+     * 滚动分页时坐标保留的小数位数，同一网格内的请求共用一份搜索结果
+     */
+    @Value("${hmdp.shop.geo.coordinate-scale:3}")
+    private int geoCoordinateScale;
+    /**
+     * 一份搜索结果最多保存的商铺数
+     */
+    @Value("${hmdp.shop.geo.max-results:1000}")
+    private int geoMaxResults;
+    /**
+     * 附近搜索带过滤条件或不按距离排序时的候选数上限，在半径内最近的这些商铺中过滤、排序
+     */
+    @Value("${hmdp.shop.geo.max-candidates:5000}")
+    private int geoMaxCandidates;
+    /**
+     * 搜索结果的有效期(s)
+     */
+    @Value("${hmdp.shop.geo.result-ttl-seconds:60}")
+    private long geoResultTtlSeconds;
+
     @Override
     public Result queryById(Long id) {
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById,CACHE_SHOP_TTL,TimeUnit.MINUTES);
+        Shop shop = cacheClient.queryWithEarlyRefresh(CACHE_SHOP_KEY, id, Shop.class, this::getById,CACHE_SHOP_TTL,TimeUnit.MINUTES);
         if(shop==null){
             return Result.fail("店铺不存在");
         }
         return Result.ok(shop);
     }
-    public Shop queryWithLogicalExpire(Long id){
-        String key =  CACHE_SHOP_KEY + id;
-        //从redis当中获取商铺数据
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //存在
-        // 从 Redis 获取数据时
-        if(StrUtil.isBlank(shopJson)){
-            return null;
+
+    @Override
+    @Transactional
+    public boolean save(Shop shop) {
+        boolean isSave = super.save(shop);
+        if (isSave) {
+            // 新店铺加入布隆过滤器
+            cachePenetrationGuard.put(CACHE_SHOP_KEY, shop.getId());
+            // 清除该id之前可能缓存的空值
+            cacheInvalidationOutbox.record(CACHE_SHOP_KEY + shop.getId());
+            // 提交后写入GEO
+            shopGeoMaintainer.syncAfterCommit(shop.getId(), null);
         }
-        //判断过期时间
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-//        JSONObject data = (JSONObject) redisData.getData();
-//        Shop shop = JSONUtil.toBean(data, Shop.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if(expireTime.isAfter(LocalDateTime.now())){
-            return shop;
-        }
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        if(isLock){
-            redisData = JSONUtil.toBean(shopJson, RedisData.class);
-            shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-            expireTime = redisData.getExpireTime();
-            if(expireTime.isAfter(LocalDateTime.now())){
-                return shop;
-            }
-            try {
-                CACHE_REBUILD_EXECUTOR.submit(()->{
-                   this.saveShop2Redis(id,20L);
-                });
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }finally {
-                unLock(lockKey);
+        return isSave;
+    }
+
+    @Override
+    @Transactional
+    public boolean updateById(Shop shop) {
+        // 修改类型或坐标时先查出原类型，提交后同步GEO
+        boolean located = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null;
+        Shop old = located ? getById(shop.getId()) : null;
+        boolean isUpdate = super.updateById(shop);
+        if (isUpdate) {
+            // 与更新在同一事务中记录缓存失效事件，提交后删除缓存
+            cacheInvalidationOutbox.record(CACHE_SHOP_KEY + shop.getId());
+            if (located) {
+                shopGeoMaintainer.syncAfterCommit(shop.getId(), old == null ? null : old.getTypeId());
             }
         }
-
-        return shop;
+        return isUpdate;
     }
 
-    public Shop queryWithMutex(Long id){
-        String key =  CACHE_SHOP_KEY + id;
-        //从redis当中获取商铺数据
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //存在
-        // 从 Redis 获取数据时
-        if(StrUtil.isNotBlank(shopJson)){
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class); // 使用同样的 JSONUtil
-            return shop;
-        }
-        //判断是否为空值
-        if(shopJson!=null){
-            return null;
-        }
-        Shop shop = null;
-        String lockKey = LOCK_SHOP_KEY + id;
-        try {
-            //获得互斥锁
-            boolean isLock = tryLock(lockKey);
-            if(!isLock){
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-            //从redis当中获取商铺数据
-            shopJson = stringRedisTemplate.opsForValue().get(key);
-            //存在
-            // 从 Redis 获取数据时
-            if(StrUtil.isNotBlank(shopJson)){
-                shop = JSONUtil.toBean(shopJson, Shop.class); // 使用同样的 JSONUtil
-                return shop;
-            }
-            //判断是否为空值
-            if(shopJson!=null){
-                return null;
-            }
-            //不存在
-            shop = getById(id);
-            if(shop==null){
-                stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            //存入缓存
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            unLock(lockKey);
+    @Override
+    @Transactional
+    public boolean removeById(Serializable id) {
+        Shop old = getById(id);
+        boolean isRemove = super.removeById(id);
+        if (isRemove) {
+            cacheInvalidationOutbox.record(CACHE_SHOP_KEY + id);
+            // 提交后从GEO中移除
+            shopGeoMaintainer.syncAfterCommit(old.getId(), old.getTypeId());
         }
-        return shop;
+        return isRemove;
     }
 
     @Override
@@ -157,29 +170,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("店铺id不能为空");
         }
-        //更新数据库
+        //更新数据库，缓存失效事件由updateById在同一事务中记录
         updateById(shop);
-        //删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
-    }
-    private void saveShop2Redis(Long id,Long expireSeconds){
-        Shop shop = getById(id);
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id,JSONUtil.toJsonStr(redisData));
-    }
-
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         if(x==null&&y==null){
@@ -189,11 +184,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         int from = (current-1)*SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current*SystemConstants.DEFAULT_PAGE_SIZE;
+        // 本地空间索引已就绪时不再访问redis GEO和数据库
+        if (shopGeoIndex.isReady()) {
+            List<GeoGrid.Hit> hits = shopGeoIndex.search(typeId.longValue(), x, y, geoRadius, end);
+            if (hits.size() <= from) {
+                return Result.ok(Collections.emptyList());
+            }
+            return Result.ok(hydrate(hits.subList(from, hits.size())));
+        }
 
         String key = SHOP_GEO_KEY + typeId;
         GeoResults<RedisGeoCommands.GeoLocation<String>> result = stringRedisTemplate.opsForGeo().search(key,
                 GeoReference.fromCoordinate(x, y),
-                new Distance(5000),
+                new Distance(geoRadius),
                 RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
         if(result==null){
             return Result.ok(Collections.EMPTY_LIST);
@@ -220,4 +223,335 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shops);
 
     }
+
+    /**
+     * 按距离滚动分页：坐标按网格取整，(类型, 网格, 半径)的搜索结果只执行一次GEOSEARCH，
+     * 按距离存入短期有效的zset，之后每页用ZRANGE按下标读取。游标记录网格和下一页的起始下标，
+     * 用户在滚动期间移动也会沿用第一页的结果；结果过期后按游标中的网格重新搜索
+     */
+    @Override
+    public Result queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor) {
+        // 1.解析游标，没有游标时从当前坐标所在网格的第一页开始
+        long gridX;
+        long gridY;
+        int offset;
+        if (StrUtil.isBlank(cursor)) {
+            gridX = toGrid(x);
+            gridY = toGrid(y);
+            offset = 0;
+        } else {
+            try {
+                String[] parts = Base64.decodeStr(cursor).split(",");
+                gridX = Long.parseLong(parts[0]);
+                gridY = Long.parseLong(parts[1]);
+                offset = Integer.parseInt(parts[2]);
+            } catch (Exception e) {
+                return Result.fail("游标无效");
+            }
+            // 伪造的游标：负数偏移会从结果末尾取数据，过大的偏移会使结束下标溢出，网格坐标超出范围时GEO查询报错
+            if (offset < 0 || offset > geoMaxResults
+                    || !(Math.abs(fromGrid(gridX)) <= 180 && Math.abs(fromGrid(gridY)) <= 85.05112878)) {
+                return Result.fail("游标无效");
+            }
+        }
+        // 2.从搜索结果中读取当前页，结果不存在时先搜索
+        String key = SHOP_GEO_RESULT_KEY + typeId + ":" + gridX + ":" + gridY + ":" + (long) geoRadius;
+        int end = offset + SystemConstants.DEFAULT_PAGE_SIZE - 1;
+        Set<ZSetOperations.TypedTuple<String>> page = stringRedisTemplate.opsForZSet().rangeWithScores(key, offset, end);
+        if ((page == null || page.isEmpty()) && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            saveGeoResult(typeId, key, fromGrid(gridX), fromGrid(gridY));
+            page = stringRedisTemplate.opsForZSet().rangeWithScores(key, offset, end);
+        }
+        if (page == null || page.isEmpty()) {
+            return Result.ok(new CursorResult().setList(Collections.emptyList()));
+        }
+        // 3.按结果顺序从缓存批量读取商铺，距离按请求的实际坐标计算
+        List<Long> ids = new ArrayList<>(page.size());
+        for (ZSetOperations.TypedTuple<String> tuple : page) {
+            ids.add(Long.valueOf(tuple.getValue()));
+        }
+        Map<Long, Shop> cached = cacheClient.queryBatchWithEarlyRefresh(CACHE_SHOP_KEY, ids, Shop.class,
+                this::loadShops, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<GeoGrid.Hit> hits = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = cached.get(id);
+            if (shop != null) {
+                hits.add(new GeoGrid.Hit(id, distance(x, y, shop.getX(), shop.getY())));
+            }
+        }
+        List<Shop> shops = toShops(hits, cached);
+        // 4.不满一页说明没有下一页
+        String next = null;
+        if (page.size() == SystemConstants.DEFAULT_PAGE_SIZE) {
+            next = Base64.encodeUrlSafe(gridX + "," + gridY + "," + (end + 1));
+        }
+        return Result.ok(new CursorResult().setList(shops).setCursor(next));
+    }
+
+    /**
+     * 附近搜索：本地空间索引就绪时在索引中过滤、排序；否则用redis GEO取候选，从缓存批量读取商铺后在内存中过滤、排序。
+     * 带过滤条件或不按距离排序时，两种方式都以半径内最近的max-candidates个商铺为候选，用有界堆选出前 current*页大小 个，
+     * 不查询数据库做过滤
+     */
+    @Override
+    public Result queryNearbyShops(NearbyShopQuery query) {
+        if (query.getTypeId() == null || query.getX() == null || query.getY() == null) {
+            return Result.fail("商铺类型和坐标不能为空");
+        }
+        if (!(Math.abs(query.getX()) <= 180 && Math.abs(query.getY()) <= 85.05112878)) {
+            return Result.fail("坐标超出范围");
+        }
+        // 半径为空时用默认值，NaN和非正数直接拒绝，超过上限时截断
+        if (query.getRadius() != null && !(query.getRadius() > 0)) {
+            return Result.fail("搜索半径必须大于0");
+        }
+        if (query.getMinPrice() != null && query.getMaxPrice() != null && query.getMinPrice() > query.getMaxPrice()) {
+            return Result.fail("最低价格不能高于最高价格");
+        }
+        // 1.解析排序方式，null代表按距离
+        Comparator<ShopFacet> order;
+        switch (StrUtil.blankToDefault(query.getSortBy(), "distance")) {
+            case "distance":
+                order = null;
+                break;
+            case "score":
+                order = Comparator.comparingInt(ShopFacet::getScore).reversed();
+                break;
+            case "sold":
+                order = Comparator.comparingInt(ShopFacet::getSold).reversed();
+                break;
+            case "price":
+                order = Comparator.comparingLong(ShopFacet::getAvgPrice);
+                break;
+            default:
+                return Result.fail("不支持的排序方式");
+        }
+        Predicate<ShopFacet> filter = nearbyFilter(query);
+        double radius = query.getRadius() == null ? geoRadius : Math.min(query.getRadius(), geoMaxRadius);
+        int current = query.getCurrent() == null || query.getCurrent() < 1 ? 1 : query.getCurrent();
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        double x = query.getX();
+        double y = query.getY();
+        Long typeId = query.getTypeId().longValue();
+        // 2.本地空间索引
+        if (shopGeoIndex.isReady()) {
+            List<GeoGrid.Hit> hits = shopGeoIndex.search(typeId, x, y, radius, end, geoMaxCandidates, filter, order);
+            if (hits.size() <= from) {
+                return Result.ok(Collections.emptyList());
+            }
+            return Result.ok(hydrate(hits.subList(from, hits.size())));
+        }
+        // 3.redis GEO取候选：只按距离取前end个时取end个；按距离过滤时逐步扩大数量，直到凑满一页、
+        // 半径内没有更多商铺或达到候选上限；按其他属性排序时取半径内最近的geoMaxCandidates个
+        int count = filter == null && order == null ? end
+                : order == null ? Math.min(Math.max(end * 4, 64), geoMaxCandidates) : geoMaxCandidates;
+        Map<Long, Shop> cached = new HashMap<>();
+        Map<Long, ShopFacet> facets = new HashMap<>();
+        List<GeoGrid.Hit> hits;
+        while (true) {
+            List<GeoGrid.Hit> candidates = searchGeo(typeId, x, y, radius, count);
+            // 4.从缓存批量读取新增的候选商铺，在内存中过滤、排序
+            List<Long> ids = new ArrayList<>();
+            for (GeoGrid.Hit hit : candidates) {
+                if (!cached.containsKey(hit.getId())) {
+                    ids.add(hit.getId());
+                }
+            }
+            if (!ids.isEmpty()) {
+                cacheClient.queryBatchWithEarlyRefresh(CACHE_SHOP_KEY, ids, Shop.class,
+                        this::loadShops, CACHE_SHOP_TTL, TimeUnit.MINUTES).forEach((id, shop) -> {
+                    cached.put(id, shop);
+                    facets.put(id, ShopFacet.of(shop));
+                });
+                // 不存在的商铺也记下，扩大范围时不再重复查询
+                ids.forEach(id -> cached.putIfAbsent(id, null));
+            }
+            hits = ShopGeoIndex.rank(candidates, facets::get, filter == null ? facet -> true : filter, order, end);
+            if (order != null || hits.size() >= end || candidates.size() < count || count >= geoMaxCandidates) {
+                break;
+            }
+            count = (int) Math.min((long) count * 2, geoMaxCandidates);
+        }
+        if (hits.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(toShops(hits.subList(from, hits.size()), cached));
+    }
+
+    /**
+     * redis GEO查询半径内最近的count个商铺，按距离从近到远排列
+     */
+    private List<GeoGrid.Hit> searchGeo(Long typeId, double x, double y, double radius, int count) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> result = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(radius),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(count));
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        List<GeoGrid.Hit> candidates = new ArrayList<>(result.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> res : result.getContent()) {
+            candidates.add(new GeoGrid.Hit(Long.parseLong(res.getContent().getName()), res.getDistance().getValue()));
+        }
+        return candidates;
+    }
+
+    /**
+     * 按名称搜索：名称索引就绪时在本地检索并按顺序从缓存批量读取商铺；否则用LIKE查询数据库，不统计总数
+     */
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        int page = current == null || current < 1 ? 1 : current;
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady()) {
+            List<Long> ids = shopNameIndex.search(name, (page - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+            if (ids.isEmpty()) {
+                return Result.ok(Collections.emptyList());
+            }
+            Map<Long, Shop> cached = cacheClient.queryBatchWithEarlyRefresh(CACHE_SHOP_KEY, ids, Shop.class,
+                    this::loadShops, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            return Result.ok(ids.stream().map(cached::get).filter(Objects::nonNull).collect(Collectors.toList()));
+        }
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .page(new Page<>(page, SystemConstants.MAX_PAGE_SIZE, false))
+                .getRecords();
+        return Result.ok(shops);
+    }
+
+    /**
+     * 输入联想：联想词就绪时直接从前缀树返回；否则按名称前缀查询数据库，按销量排序
+     */
+    @Override
+    public Result querySuggestions(String prefix, Integer limit) {
+        if (StrUtil.isBlank(prefix)) {
+            return Result.ok(Collections.emptyList());
+        }
+        int n = Math.max(1, Math.min(limit == null ? shopSuggester.getTopN() : limit, shopSuggester.getTopN()));
+        List<ShopSuggestion> suggestions = new ArrayList<>(n);
+        if (shopSuggester.isReady()) {
+            for (SuggestTrie.Term term : shopSuggester.suggest(prefix, n)) {
+                suggestions.add(new ShopSuggestion().setText(term.getText()).setType(term.getType()).setShopId(term.getId()));
+            }
+            return Result.ok(suggestions);
+        }
+        List<Shop> shops = query().select("id", "name").likeRight("name", prefix.trim())
+                .orderByDesc("sold").last("limit " + n).list();
+        for (Shop shop : shops) {
+            suggestions.add(new ShopSuggestion().setText(shop.getName()).setType(ShopSuggester.TYPE_SHOP).setShopId(shop.getId()));
+        }
+        return Result.ok(suggestions);
+    }
+
+    /**
+     * @return 没有过滤条件时返回null
+     */
+    private static Predicate<ShopFacet> nearbyFilter(NearbyShopQuery query) {
+        List<Predicate<ShopFacet>> conditions = new ArrayList<>();
+        if (query.getMinScore() != null) {
+            int minScore = query.getMinScore();
+            conditions.add(facet -> facet.getScore() >= minScore);
+        }
+        if (query.getMinPrice() != null) {
+            long minPrice = query.getMinPrice();
+            conditions.add(facet -> facet.getAvgPrice() >= minPrice);
+        }
+        if (query.getMaxPrice() != null) {
+            long maxPrice = query.getMaxPrice();
+            conditions.add(facet -> facet.getAvgPrice() <= maxPrice);
+        }
+        if (query.getMinSold() != null) {
+            int minSold = query.getMinSold();
+            conditions.add(facet -> facet.getSold() >= minSold);
+        }
+        if (Boolean.TRUE.equals(query.getOpenNow())) {
+            // 营业时间已在构建属性时解析，这里只比较分钟数
+            LocalTime now = LocalTime.now();
+            conditions.add(facet -> facet.getOpenHours().isOpen(now));
+        }
+        return conditions.stream().reduce(Predicate::and).orElse(null);
+    }
+
+    /**
+     * 按索引结果的顺序从缓存批量读取商铺并设置距离
+     */
+    private List<Shop> hydrate(List<GeoGrid.Hit> hits) {
+        List<Long> ids = hits.stream().map(GeoGrid.Hit::getId).collect(Collectors.toList());
+        Map<Long, Shop> cached = cacheClient.queryBatchWithEarlyRefresh(CACHE_SHOP_KEY, ids, Shop.class,
+                this::loadShops, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return toShops(hits, cached);
+    }
+
+    private Map<Long, Shop> loadShops(List<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
+    private static List<Shop> toShops(List<GeoGrid.Hit> hits, Map<Long, Shop> cached) {
+        List<Shop> shops = new ArrayList<>(hits.size());
+        for (GeoGrid.Hit hit : hits) {
+            Shop shop = cached.get(hit.getId());
+            if (shop == null) {
+                continue;
+            }
+            // 缓存中的对象是共享的，复制后再设置距离
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(hit.getDistance());
+            shops.add(copy);
+        }
+        return shops;
+    }
+
+    private void saveGeoResult(Integer typeId, String key, double x, double y) {
+        // 本地空间索引已就绪时直接从索引生成结果
+        if (shopGeoIndex.isReady()) {
+            List<GeoGrid.Hit> hits = shopGeoIndex.search(typeId.longValue(), x, y, geoRadius, geoMaxResults);
+            Set<RedisZSetCommands.Tuple> tuples = new HashSet<>(hits.size() * 2);
+            for (GeoGrid.Hit hit : hits) {
+                tuples.add(new DefaultTuple(String.valueOf(hit.getId()).getBytes(StandardCharsets.UTF_8), hit.getDistance()));
+            }
+            saveGeoResult(key, tuples);
+            return;
+        }
+        // 1.按距离从近到远搜索
+        GeoResults<RedisGeoCommands.GeoLocation<String>> result = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(geoRadius),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(geoMaxResults));
+        if (result == null || result.getContent().isEmpty()) {
+            return;
+        }
+        // 2.以距离为分数写入zset并设置有效期；并发写入的内容相同，重复写入无影响
+        Set<RedisZSetCommands.Tuple> tuples = new HashSet<>(result.getContent().size() * 2);
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> res : result.getContent()) {
+            tuples.add(new DefaultTuple(res.getContent().getName().getBytes(StandardCharsets.UTF_8),
+                    res.getDistance().getValue()));
+        }
+        saveGeoResult(key, tuples);
+    }
+
+    private void saveGeoResult(String key, Set<RedisZSetCommands.Tuple> tuples) {
+        if (tuples.isEmpty()) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zAdd(keyBytes, tuples);
+            connection.expire(keyBytes, geoResultTtlSeconds);
+            return null;
+        });
+    }
+
+    private long toGrid(double coordinate) {
+        return Math.round(coordinate * Math.pow(10, geoCoordinateScale));
+    }
+
+    private double fromGrid(long grid) {
+        return grid / Math.pow(10, geoCoordinateScale);
+    }
+
+    private static double distance(double x1, double y1, Double x2, Double y2) {
+        return x2 == null || y2 == null ? 0 : GeoGrid.distance(x1, y1, x2, y2);
+    }
 }
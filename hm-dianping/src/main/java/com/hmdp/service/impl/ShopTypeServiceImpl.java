@@ -1,55 +1,243 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * <p>
+ * 店铺类型列表保存为本地不可变快照，连同序列化好的响应一起缓存；后台定时检查redis中的版本号，
+ * 版本变化才重新加载，请求本身不访问redis。类型数据变更提交后删除redis中的列表并递增版本号。
+ * redis中的列表带有查询数据库前读到的版本号，只在版本号未变时写入，读取时版本号不一致的列表视为不存在，
+ * 避免加载期间发生的变更被旧列表覆盖。
+ * </p>
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+    /**
+     * 从未变更过时的版本号
+     */
+    private static final String INITIAL_VERSION = "0";
+    private static final DefaultRedisScript<Long> FILL_SCRIPT;
+    static {
+        FILL_SCRIPT = new DefaultRedisScript<>();
+        FILL_SCRIPT.setLocation(new ClassPathResource("shop_type_fill.lua"));
+        FILL_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> BUMP_SCRIPT;
+    static {
+        BUMP_SCRIPT = new DefaultRedisScript<>();
+        BUMP_SCRIPT.setLocation(new ClassPathResource("shop_type_bump.lua"));
+        BUMP_SCRIPT.setResultType(Long.class);
+    }
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+    /**
+     * 检查版本号的间隔(ms)
+     */
+    @Value("${hmdp.cache.shop-type.check-interval:1000}")
+    private long checkInterval;
+
+    private volatile Snapshot snapshot;
+    private final ScheduledExecutorService versionChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shop-type-version-checker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 店铺类型快照
+     */
+    private static class Snapshot {
+        private final String version;
+        private final List<ShopType> types;
+        private final byte[] response;
+
+        private Snapshot(String version, List<ShopType> types, byte[] response) {
+            this.version = version;
+            this.types = types;
+            this.response = response;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        versionChecker.scheduleWithFixedDelay(this::checkVersion, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        versionChecker.shutdownNow();
+    }
 
     @Override
     public Result queryList() {
-        String key = CACHE_SHOP_TYPE_KEY;
-        String shopTypeJSON = stringRedisTemplate.opsForValue().get(key);
-        List<ShopType> typeList;
-        if(StrUtil.isNotBlank(shopTypeJSON)){
-            typeList = JSONUtil.toList(shopTypeJSON,ShopType.class);
-            return Result.ok(typeList);
-        }
-        typeList = query().orderByAsc("sort").list();
-        if (Objects.isNull(typeList)) {
-            // 3.1 数据库中不存在该数据，返回失败信息
-            return Result.fail("店铺类型不存在");
-        }
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(typeList),
-                CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
-        return Result.ok(typeList);
+        return Result.ok(currentSnapshot().types);
+    }
+
+    @Override
+    public byte[] queryListResponse() {
+        return currentSnapshot().response;
+    }
+
+    @Override
+    @Transactional
+    public boolean save(ShopType shopType) {
+        boolean isSave = super.save(shopType);
+        if (isSave) {
+            bumpVersionAfterCommit();
+        }
+        return isSave;
+    }
+
+    @Override
+    @Transactional
+    public boolean updateById(ShopType shopType) {
+        boolean isUpdate = super.updateById(shopType);
+        if (isUpdate) {
+            bumpVersionAfterCommit();
+        }
+        return isUpdate;
+    }
+
+    @Override
+    @Transactional
+    public boolean removeById(Serializable id) {
+        boolean isRemove = super.removeById(id);
+        if (isRemove) {
+            bumpVersionAfterCommit();
+        }
+        return isRemove;
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = load(readVersion());
+            }
+            return snapshot;
+        }
+    }
+
+    private void checkVersion() {
+        try {
+            Snapshot current = snapshot;
+            if (current == null) {
+                return;
+            }
+            // 版本号变化才重新加载
+            String version = readVersion();
+            if (!StrUtil.equals(version, current.version)) {
+                snapshot = load(version);
+                log.debug("店铺类型已更新，版本：{}", version);
+            }
+        } catch (Exception e) {
+            log.error("检查店铺类型版本失败", e);
+        }
+    }
+
+    private String readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return version == null ? INITIAL_VERSION : version;
+    }
+
+    /**
+     * 加载快照，先读版本号再读数据，加载期间版本再次变化会在下次检查时重新加载
+     * @param version 加载前读到的版本号，快照和写入redis的列表都以它为准
+     */
+    private Snapshot load(String version) {
+        // 1.查询redis，只使用同一版本的列表
+        List<ShopType> typeList = readCached(version);
+        if (typeList == null) {
+            // 2.不存在，查询数据库；版本号未变时才写入redis
+            typeList = query().orderByAsc("sort").list();
+            String cached = JSONUtil.createObj().set("version", version).set("types", typeList).toString();
+            stringRedisTemplate.execute(FILL_SCRIPT, Arrays.asList(CACHE_SHOP_TYPE_KEY, CACHE_SHOP_TYPE_VERSION_KEY),
+                    version, cached, String.valueOf(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TYPE_TTL)));
+        }
+        // 3.预先序列化响应
+        List<ShopType> types = Collections.unmodifiableList(typeList);
+        try {
+            return new Snapshot(version, types, objectMapper.writeValueAsBytes(Result.ok(types)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 读取redis中的列表
+     * @return 不存在、格式不符或版本号不一致时返回null
+     */
+    private List<ShopType> readCached(String version) {
+        String shopTypeJSON = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+        if (StrUtil.isBlank(shopTypeJSON) || !JSONUtil.isJsonObj(shopTypeJSON)) {
+            return null;
+        }
+        JSONObject cached = JSONUtil.parseObj(shopTypeJSON);
+        if (!version.equals(cached.getStr("version")) || cached.getJSONArray("types") == null) {
+            return null;
+        }
+        return cached.getJSONArray("types").toList(ShopType.class);
+    }
+
+    private void bumpVersionAfterCommit() {
+        Runnable bump = () -> stringRedisTemplate.execute(BUMP_SCRIPT,
+                Arrays.asList(CACHE_SHOP_TYPE_KEY, CACHE_SHOP_TYPE_VERSION_KEY));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bump.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                bump.run();
+            }
+        });
     }
 }
@@ -9,6 +9,8 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockGate;
+import com.hmdp.utils.SeckillStockShards;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -16,24 +18,34 @@ import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
 
 /**
  * <p>
@@ -55,70 +67,222 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private RedissonClient redissonClient;
+    @Resource
+    private SeckillStockGate seckillStockGate;
+    @Resource
+    private SeckillStockShards seckillStockShards;
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
     }
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024*1024);
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> STOCK_LEASE_SCRIPT;
+    static {
+        STOCK_LEASE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_LEASE_SCRIPT.setLocation(new ClassPathResource("stock_lease.lua"));
+        STOCK_LEASE_SCRIPT.setResultType(Long.class);
+    }
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+    @Value("${hmdp.seckill.order.consumer-count:4}")
+    private int consumerCount;
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+    @Value("${hmdp.seckill.order.reclaim-interval:5000}")
+    private long reclaimInterval;
+    @Value("${hmdp.seckill.order.reclaim-min-idle:30000}")
+    private long reclaimMinIdle;
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private long maxDeliveries;
+    private final String queueName = SECKILL_ORDER_STREAM;
+    /**
+     * 消费者名称前缀，格式为 pid@host，保证不同节点的消费者不重名
+     */
+    private final String consumerPrefix = ManagementFactory.getRuntimeMXBean().getName();
+    private ExecutorService seckillOrderExecutor;
+    private ScheduledExecutorService pendingReclaimExecutor;
+    private volatile boolean running = true;
+
     @PostConstruct
     private void init(){
-        // TODO 需要秒杀下单功能的同学自己解开下面的注释
-        //SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        createGroupIfAbsent();
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerCount);
+        for (int i = 0; i < consumerCount; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(consumerPrefix + "-c" + i));
+        }
+        pendingReclaimExecutor = Executors.newSingleThreadScheduledExecutor();
+        pendingReclaimExecutor.scheduleWithFixedDelay(new PendingOrderReclaimer(consumerPrefix + "-reclaimer"),
+                reclaimInterval, reclaimInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy(){
+        running = false;
+        seckillOrderExecutor.shutdown();
+        pendingReclaimExecutor.shutdown();
+    }
+
+    private void createGroupIfAbsent(){
+        try {
+            // XGROUP CREATE stream.orders g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(queueName.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            // 消费者组已存在（BUSYGROUP），忽略
+            log.debug("消费者组已存在: {}", e.getMessage());
+        }
     }
-    private final String queueName = "stream.orders";
+
     private class VoucherOrderHandler implements Runnable{
+        private final String consumerName;
+
+        private VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
         @Override
         public void run() {
-            while(true){
+            while(running){
+                List<MapRecord<String, Object, Object>> list = null;
                 try {
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                    // 1.批量获取消息 XREADGROUP GROUP g1 cN COUNT batchSize BLOCK 2000 STREAMS stream.orders >
+                    list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
                     if(list==null||list.isEmpty()){
                         continue;
                     }
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder =
-                            BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    // 2.批量下单并确认
+                    handleRecords(list);
                 } catch (Exception e) {
                     log.error("订单处理异常",e);
-                    handlePendingList();
+                    if(list==null){
+                        // 读取消息失败（如redis不可用），稍后再试
+                        sleepQuietly(2000);
+                        continue;
+                    }
+                    // 整批失败后逐条重试，仍失败的消息留在pending-list中由回收线程处理
+                    handleRecordsOneByOne(list);
                 }
             }
         }
     }
-    private void handlePendingList(){
-        while(true){
+
+    /**
+     * 回收pending-list中长时间未确认的消息：
+     * 空闲超过reclaimMinIdle的消息通过XCLAIM转给回收者重新处理（包括已宕机节点的消费者），
+     * 投递次数达到maxDeliveries的消息转入死信stream并确认，避免毒消息一直阻塞
+     */
+    private class PendingOrderReclaimer implements Runnable{
+        private final String consumerName;
+
+        private PendingOrderReclaimer(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
             try {
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(queueName, ReadOffset.from("0"))
-                );
-                if(list==null||list.isEmpty()){
-                    break;
-                }
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> value = record.getValue();
-                VoucherOrder voucherOrder =
-                        BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                handleVoucherOrder(voucherOrder);
-                stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                reclaim();
             } catch (Exception e) {
-                log.error("订单处理异常",e);
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException ex) {
-                    throw new RuntimeException(ex);
+                // 异常不能抛出，否则定时任务会被取消
+                log.error("pending订单回收异常",e);
+            }
+        }
+
+        private void reclaim(){
+            // 1.查询pending-list XPENDING stream.orders g1 - + batchSize
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(queueName, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            if(pendingMessages==null||pendingMessages.isEmpty()){
+                return;
+            }
+            // 2.筛选空闲超时的消息，超过最大投递次数的转入死信
+            List<RecordId> claimIds = new ArrayList<>();
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if(pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < reclaimMinIdle){
+                    continue;
                 }
+                if(pendingMessage.getTotalDeliveryCount() >= maxDeliveries){
+                    deadLetter(pendingMessage);
+                    continue;
+                }
+                claimIds.add(pendingMessage.getId());
+            }
+            if(claimIds.isEmpty()){
+                return;
+            }
+            // 3.XCLAIM转移消息所有权，投递次数+1
+            List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.streamCommands().xClaim(queueName.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP,
+                            consumerName, Duration.ofMillis(reclaimMinIdle), claimIds.toArray(new RecordId[0])));
+            if(claimed==null||claimed.isEmpty()){
+                return;
+            }
+            log.info("回收pending订单消息{}条", claimed.size());
+            // 4.逐条处理，单条失败不影响其它消息
+            List<MapRecord<String, String, String>> records = new ArrayList<>(claimed.size());
+            for (ByteRecord record : claimed) {
+                records.add(record.deserialize(stringRedisTemplate.getStringSerializer()));
+            }
+            handleRecordsOneByOne(records);
+        }
+    }
+
+    private void deadLetter(PendingMessage pendingMessage){
+        String id = pendingMessage.getIdAsString();
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream()
+                .range(queueName, Range.closed(id, id));
+        if(list!=null&&!list.isEmpty()){
+            Map<Object, Object> value = new HashMap<>(list.get(0).getValue());
+            value.put("sourceId", id);
+            value.put("deliveries", String.valueOf(pendingMessage.getTotalDeliveryCount()));
+            // XADD stream.orders.dlq * userId .. voucherId .. id .. sourceId .. deliveries ..
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, value);
+        }
+        stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, id);
+        log.error("订单消息投递{}次仍失败，转入死信：{}", pendingMessage.getTotalDeliveryCount(), id);
+    }
+
+    private void handleRecords(List<? extends MapRecord<String, ?, ?>> list){
+        List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+        RecordId[] recordIds = new RecordId[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            MapRecord<String, ?, ?> record = list.get(i);
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            recordIds[i] = record.getId();
+        }
+        // 一个事务写入整批订单
+        proxy.createVoucherOrders(voucherOrders);
+        // 一次XACK确认整批消息
+        stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, recordIds);
+    }
+
+    private void sleepQuietly(long millis){
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleRecordsOneByOne(List<? extends MapRecord<String, ?, ?>> list){
+        for (MapRecord<String, ?, ?> record : list) {
+            try {
+                handleRecords(Collections.singletonList(record));
+            } catch (Exception e) {
+                // 不确认，留在pending-list中等待回收或转入死信
+                log.error("订单处理异常，消息id：{}", record.getId(), e);
             }
         }
     }
@@ -138,54 +302,134 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //            }
 //        }
 //    }
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getId();
-        // 创建锁对象
-        // SimpleRedisLock lock = new SimpleRedisLock("order:" + userId, stringRedisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        // 获取锁
-        boolean isLock = lock.tryLock();
-        // 判断是否获取锁成功
-        if(!isLock){
-            // 获取锁失败，返回错误或重试
-            log.error("不允许重复下单");
-            return;
-        }
-        try {
-            // 获取代理对象（事务）
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 释放锁
-            lock.unlock();
-        }
-    }
-    private IVoucherOrderService proxy;
     @Override
     public Result secKillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
-        //1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.EMPTY_LIST,
-                voucherId.toString(), userId.toString(),String.valueOf(orderId)
-        );
+        //0.本地库存闸门，售罄后直接拒绝，不再访问redis
+        boolean leased = seckillStockGate.isEnabled();
+        if(leased && !seckillStockGate.tryAcquire(voucherId)){
+            return Result.fail("库存不足");
+        }
+        long orderId;
+        Long result;
+        try {
+            orderId = redisIdWorker.nextId("order");
+            //1.执行lua脚本，库存分桶的券按桶执行
+            int shards = seckillStockShards.cachedShardCount(voucherId);
+            if (shards <= 1) {
+                result = stringRedisTemplate.execute(
+                        SECKILL_SCRIPT,
+                        Collections.EMPTY_LIST,
+                        voucherId.toString(), userId.toString(),String.valueOf(orderId), leased ? "1" : "0");
+                if (result != null && result == 3) {
+                    // 本地尚未缓存分桶数的分桶券，查询分桶数后按桶执行
+                    shards = seckillStockShards.shardCount(voucherId);
+                    result = seckillWithShards(voucherId, userId, orderId, shards, leased);
+                }
+            } else {
+                result = seckillWithShards(voucherId, userId, orderId, shards, leased);
+            }
+        } catch (RuntimeException e) {
+            if(leased){
+                seckillStockGate.release(voucherId);
+            }
+            throw e;
+        }
         //判断结果
         int r =result.intValue();
         if(r!=0){
+            if(leased){
+                // 未下单成功，归还本地库存
+                seckillStockGate.release(voucherId);
+            }
             return Result.fail(r==1?"库存不足":"一个用户只能下一次单");
         }
-        //等于0
+        //等于0，订单已由lua脚本写入stream.orders，由消费者异步落库
+        return Result.ok(orderId);
+    }
 
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        orderTasks.add(voucherOrder);
-        //获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
 
-        return Result.ok(orderId);
+    /**
+     * 分桶券下单。各桶和stream.orders不在同一slot，扣减库存、占位和发送消息分多次执行，
+     * 后续步骤失败时撤销已完成的步骤：归还扣减的库存，移除主桶中的占位
+     */
+    private Long seckillWithShards(Long voucherId, Long userId, long orderId, int shards, boolean leased) {
+        // 1.在用户主桶中判断一人一单，主桶有库存（或已由本地闸门预占）时扣减并占位
+        int home = seckillStockShards.homeBucket(userId, shards);
+        String orderKey = seckillStockShards.orderKey(voucherId, shards, home);
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SHARD_SCRIPT,
+                Arrays.asList(seckillStockShards.stockKey(voucherId, shards, home), orderKey),
+                userId.toString(), leased ? "1" : "0"
+        );
+        if (result == null || result == 2) {
+            return result;
+        }
+        // 已扣减库存的桶，-1代表没有扣减redis库存（已由本地闸门预占）
+        int bucket = leased ? -1 : home;
+        if (result == 1) {
+            // 2.主桶库存不足，依次尝试其它桶；此时没有占位，同一用户的并发请求不会被误判为重复下单
+            bucket = -1;
+            for (int i = 1; i < shards && bucket < 0; i++) {
+                int next = (home + i) % shards;
+                Long n = stringRedisTemplate.execute(
+                        STOCK_LEASE_SCRIPT,
+                        Collections.singletonList(seckillStockShards.stockKey(voucherId, shards, next)),
+                        "1"
+                );
+                if (n != null && n > 0) {
+                    bucket = next;
+                }
+            }
+            if (bucket < 0) {
+                // 3.所有桶都已售罄
+                return 1L;
+            }
+            // 4.在主桶中占位，已被同一用户的并发请求占用则归还库存
+            Long added;
+            try {
+                added = stringRedisTemplate.opsForSet().add(orderKey, userId.toString());
+            } catch (RuntimeException e) {
+                undoShardOrder(voucherId, userId, shards, bucket, null);
+                throw e;
+            }
+            if (added == null || added == 0) {
+                undoShardOrder(voucherId, userId, shards, bucket, null);
+                return 2L;
+            }
+        }
+        // 5.发送消息 XADD stream.orders * userId .. voucherId .. id ..
+        Map<String, String> value = new HashMap<>(3);
+        value.put("userId", userId.toString());
+        value.put("voucherId", voucherId.toString());
+        value.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(queueName, value);
+        } catch (RuntimeException e) {
+            undoShardOrder(voucherId, userId, shards, bucket, orderKey);
+            throw e;
+        }
+        return 0L;
+    }
+
+    /**
+     * 撤销分桶券未完成的下单
+     * @param bucket 需要归还一件库存的桶，-1代表不归还
+     * @param orderKey 需要移除用户占位的订单key，null代表不移除
+     */
+    private void undoShardOrder(Long voucherId, Long userId, int shards, int bucket, String orderKey) {
+        try {
+            if (bucket >= 0) {
+                stringRedisTemplate.opsForValue().increment(seckillStockShards.stockKey(voucherId, shards, bucket));
+            }
+            if (orderKey != null) {
+                stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            }
+        } catch (RuntimeException e) {
+            // 撤销也失败时需人工处理，日志中记录完整信息
+            log.error("撤销分桶秒杀下单失败，voucherId:{}, userId:{}, bucket:{}, orderKey:{}",
+                    voucherId, userId, bucket, orderKey, e);
+        }
     }
 
 
@@ -276,4 +520,65 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 7.创建订单
         save(voucherOrder);
     }
+
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.批内去重，同一用户同一券只保留第一条（消息重投时可能重复）
+        Map<String, VoucherOrder> orderMap = new LinkedHashMap<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            orderMap.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+        }
+        // 2.一人一单，一次查询出批内已存在的订单
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder voucherOrder : orderMap.values()) {
+            userIds.add(voucherOrder.getUserId());
+            voucherIds.add(voucherOrder.getVoucherId());
+        }
+        List<VoucherOrder> existOrders = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list();
+        for (VoucherOrder existOrder : existOrders) {
+            if (orderMap.remove(existOrder.getUserId() + ":" + existOrder.getVoucherId()) != null) {
+                log.error("用户已经购买过一次！userId:{}, voucherId:{}", existOrder.getUserId(), existOrder.getVoucherId());
+            }
+        }
+        if (orderMap.isEmpty()) {
+            return;
+        }
+        // 3.按券分组，每张券只扣减一次库存
+        Map<Long, List<VoucherOrder>> voucherOrderMap = orderMap.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        List<VoucherOrder> toSave = new ArrayList<>(orderMap.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : voucherOrderMap.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+            int size = orders.size();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + size) // set stock = stock - n
+                    .eq("voucher_id", voucherId).ge("stock", size) // where id = ? and stock >= n
+                    .update();
+            if (success) {
+                toSave.addAll(orders);
+                continue;
+            }
+            // 库存不够整批扣减，逐条扣减直到库存耗尽
+            for (VoucherOrder order : orders) {
+                success = seckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", voucherId).gt("stock", 0)
+                        .update();
+                if (!success) {
+                    log.error("库存不足！voucherId:{}", voucherId);
+                    break;
+                }
+                toSave.add(order);
+            }
+        }
+        if (toSave.isEmpty()) {
+            return;
+        }
+        // 4.多行插入订单
+        getBaseMapper().insertBatch(toSave);
+    }
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,13 +8,23 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidationOutbox;
+import com.hmdp.utils.SeckillStockShards;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_LIST_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -31,15 +42,82 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillStockShards seckillStockShards;
+    @Resource
+    private CacheInvalidationOutbox cacheInvalidationOutbox;
+    @Resource
+    private CacheClient cacheClient;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 1.查询优惠券信息，按店铺长期缓存，新增优惠券时失效
+        List<Voucher> cached = cacheClient.queryListWithPassThrough(CACHE_VOUCHER_LIST_KEY, shopId, Voucher.class,
+                getBaseMapper()::queryVoucherOfShop, CACHE_VOUCHER_LIST_TTL, TimeUnit.MINUTES);
+        // 2.缓存中的对象是共享的，复制后再填充库存
+        List<Voucher> vouchers = cached.stream()
+                .map(voucher -> BeanUtil.copyProperties(voucher, Voucher.class))
+                .collect(Collectors.toList());
+        // 3.秒杀券的库存从redis实时读取
+        fillSeckillStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 一次MGET读取所有秒杀券的库存，分桶的券读取所有桶并求和；redis中没有库存时保留数据库中的值
+     */
+    private void fillSeckillStock(List<Voucher> vouchers) {
+        // 1.收集库存key，记录每张券的key在列表中的范围；普通券没有秒杀信息，stock为null
+        List<Voucher> seckillVouchers = vouchers.stream().filter(v -> v.getStock() != null).collect(Collectors.toList());
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> shardCounts = seckillStockShards.shardCounts(
+                seckillVouchers.stream().map(Voucher::getId).collect(Collectors.toList()));
+        List<String> keys = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        for (Voucher voucher : seckillVouchers) {
+            offsets.add(keys.size());
+            int shards = shardCounts.get(voucher.getId());
+            for (int i = 0; i < shards; i++) {
+                keys.add(seckillStockShards.stockKey(voucher.getId(), shards, i));
+            }
+        }
+        offsets.add(keys.size());
+        // 2.一次MGET
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks == null) {
+            return;
+        }
+        // 3.按券汇总
+        for (int i = 0; i < seckillVouchers.size(); i++) {
+            int total = 0;
+            boolean found = false;
+            for (int j = offsets.get(i); j < offsets.get(i + 1); j++) {
+                String stock = stocks.get(j);
+                if (stock != null) {
+                    total += Integer.parseInt(stock);
+                    found = true;
+                }
+            }
+            if (found) {
+                seckillVouchers.get(i).setStock(Math.max(total, 0));
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    public boolean save(Voucher voucher) {
+        boolean isSave = super.save(voucher);
+        if (isSave) {
+            // 店铺的优惠券列表发生变化
+            cacheInvalidationOutbox.record(CACHE_VOUCHER_LIST_KEY + voucher.getShopId());
+        }
+        return isSave;
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -52,7 +130,20 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(),
-                voucher.getStock().toString());
+        // 保存秒杀库存到redis
+        Integer shards = voucher.getStockShards();
+        if (shards == null || shards <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(),
+                    voucher.getStock().toString());
+            return;
+        }
+        // 先写分桶数，再把库存均分到各个桶，余数分给前几个桶
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucher.getId(), shards.toString());
+        int stock = voucher.getStock();
+        for (int i = 0; i < shards; i++) {
+            int bucketStock = stock / shards + (i < stock % shards ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(seckillStockShards.stockKey(voucher.getId(), shards, i),
+                    String.valueOf(bucketStock));
+        }
     }
 }
@@ -0,0 +1,409 @@
+package com.hmdp.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于字段schema的紧凑二进制编解码
+ * <p>
+ * 格式：魔数 | 格式版本 | 类型(对象/列表/逻辑过期对象) | [过期时间 | 重建耗时] | schema指纹 | 数据。
+ * 数据只包含空值位图和非空字段的值，不写字段名；整数使用zigzag变长编码。
+ * 类的字段发生变化后schema指纹不一致，旧数据解码为null，按缓存未命中处理。
+ * 不以魔数开头的数据（迁移前写入的JSON）交给JSON编解码读取；含不支持字段类型的对象也按JSON写入。
+ * </p>
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte KIND_OBJECT = 1;
+    private static final byte KIND_LIST = 2;
+    private static final byte KIND_EXPIRE = 3;
+
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value) {
+        if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            Schema schema = list.isEmpty() ? null : schemaOf(list.iterator().next().getClass());
+            if (!list.isEmpty() && schema == null) {
+                return jsonCodec.encode(value);
+            }
+            Writer writer = header(KIND_LIST, schema);
+            writer.writeVarLong(list.size());
+            for (Object element : list) {
+                writer.writeByte(element == null ? 0 : 1);
+                if (element != null) {
+                    schema.write(writer, element);
+                }
+            }
+            return writer.toByteArray();
+        }
+        Schema schema = value == null ? null : schemaOf(value.getClass());
+        if (schema == null) {
+            return jsonCodec.encode(value);
+        }
+        Writer writer = header(KIND_OBJECT, schema);
+        schema.write(writer, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decode(bytes, type);
+        }
+        Reader reader = new Reader(bytes);
+        if (!readHeader(reader, KIND_OBJECT, type)) {
+            return null;
+        }
+        return type.cast(schemaOf(type).read(reader));
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> elementType) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decodeList(bytes, elementType);
+        }
+        Reader reader = new Reader(bytes);
+        if (!readHeader(reader, KIND_LIST, elementType)) {
+            return null;
+        }
+        int size = (int) reader.readVarLong();
+        List<T> list = new ArrayList<>(size);
+        Schema schema = size == 0 ? null : schemaOf(elementType);
+        for (int i = 0; i < size; i++) {
+            list.add(reader.readByte() == 0 ? null : elementType.cast(schema.read(reader)));
+        }
+        return list;
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime, long delta) {
+        Schema schema = value == null ? null : schemaOf(value.getClass());
+        if (schema == null) {
+            return jsonCodec.encodeWithExpire(value, expireTime, delta);
+        }
+        Writer writer = new Writer();
+        writer.writeByte(MAGIC);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeByte(KIND_EXPIRE);
+        writer.writeVarLong(expireTime.toEpochSecond(ZoneOffset.UTC));
+        writer.writeVarLong(expireTime.getNano());
+        writer.writeVarLong(delta);
+        writer.writeInt(schema.fingerprint);
+        schema.write(writer, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        if (!isBinary(bytes)) {
+            return jsonCodec.decodeWithExpire(bytes, type);
+        }
+        Reader reader = new Reader(bytes);
+        if (reader.readByte() != FORMAT_VERSION || reader.readByte() != KIND_EXPIRE) {
+            return null;
+        }
+        long epochSecond = reader.readVarLong();
+        int nano = (int) reader.readVarLong();
+        long delta = reader.readVarLong();
+        Schema schema = schemaOf(type);
+        if (schema == null || reader.readInt() != schema.fingerprint) {
+            return null;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        redisData.setDelta(delta);
+        redisData.setData(schema.read(reader));
+        return redisData;
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    private static Writer header(byte kind, Schema schema) {
+        Writer writer = new Writer();
+        writer.writeByte(MAGIC);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeByte(kind);
+        writer.writeInt(schema == null ? 0 : schema.fingerprint);
+        return writer;
+    }
+
+    /**
+     * 读取并校验头部，格式版本、类型或schema指纹不一致时返回false
+     */
+    private static boolean readHeader(Reader reader, byte kind, Class<?> type) {
+        if (reader.readByte() != FORMAT_VERSION || reader.readByte() != kind) {
+            return false;
+        }
+        int fingerprint = reader.readInt();
+        if (kind == KIND_LIST && fingerprint == 0) {
+            // 空列表
+            return true;
+        }
+        Schema schema = schemaOf(type);
+        return schema != null && schema.fingerprint == fingerprint;
+    }
+
+    /**
+     * 获取类的schema，含不支持的字段类型时返回null
+     */
+    private static Schema schemaOf(Class<?> type) {
+        Schema schema = SCHEMAS.get(type);
+        if (schema == null) {
+            schema = Schema.create(type);
+            SCHEMAS.put(type, schema);
+        }
+        return schema == Schema.UNSUPPORTED ? null : schema;
+    }
+
+    private static class Schema {
+        private static final Schema UNSUPPORTED = new Schema(null, new Field[0], 0);
+
+        private final Class<?> type;
+        private final Field[] fields;
+        private final int fingerprint;
+
+        private Schema(Class<?> type, Field[] fields, int fingerprint) {
+            this.type = type;
+            this.fields = fields;
+            this.fingerprint = fingerprint;
+        }
+
+        private static Schema create(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    if (!isSupported(field.getType())) {
+                        return UNSUPPORTED;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            try {
+                type.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                return UNSUPPORTED;
+            }
+            // 按字段名排序，指纹由字段名和类型计算
+            fields.sort(Comparator.comparing(Field::getName));
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (Field field : fields) {
+                signature.append(';').append(field.getName()).append(':').append(field.getType().getName());
+            }
+            return new Schema(type, fields.toArray(new Field[0]), signature.toString().hashCode());
+        }
+
+        private static boolean isSupported(Class<?> t) {
+            return t == String.class || t == Long.class || t == long.class || t == Integer.class || t == int.class
+                    || t == Double.class || t == double.class || t == Boolean.class || t == boolean.class
+                    || t == LocalDateTime.class || t == LocalDate.class;
+        }
+
+        private void write(Writer writer, Object value) {
+            try {
+                Object[] values = new Object[fields.length];
+                byte[] nullBits = new byte[(fields.length + 7) / 8];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = fields[i].get(value);
+                    if (values[i] == null) {
+                        nullBits[i >> 3] |= 1 << (i & 7);
+                    }
+                }
+                writer.writeBytes(nullBits);
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        writeValue(writer, fields[i].getType(), values[i]);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Object read(Reader reader) {
+            try {
+                Object value = type.getDeclaredConstructor().newInstance();
+                byte[] nullBits = reader.readBytes((fields.length + 7) / 8);
+                for (int i = 0; i < fields.length; i++) {
+                    if ((nullBits[i >> 3] & (1 << (i & 7))) == 0) {
+                        fields[i].set(value, readValue(reader, fields[i].getType()));
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static void writeValue(Writer writer, Class<?> t, Object v) {
+            if (t == String.class) {
+                byte[] bytes = ((String) v).getBytes(StandardCharsets.UTF_8);
+                writer.writeVarLong(bytes.length);
+                writer.writeBytes(bytes);
+            } else if (t == Long.class || t == long.class) {
+                writer.writeZigZag((Long) v);
+            } else if (t == Integer.class || t == int.class) {
+                writer.writeZigZag((Integer) v);
+            } else if (t == Double.class || t == double.class) {
+                writer.writeLong(Double.doubleToRawLongBits((Double) v));
+            } else if (t == Boolean.class || t == boolean.class) {
+                writer.writeByte((Boolean) v ? 1 : 0);
+            } else if (t == LocalDateTime.class) {
+                LocalDateTime time = (LocalDateTime) v;
+                writer.writeZigZag(time.toEpochSecond(ZoneOffset.UTC));
+                writer.writeVarLong(time.getNano());
+            } else {
+                writer.writeZigZag(((LocalDate) v).toEpochDay());
+            }
+        }
+
+        private static Object readValue(Reader reader, Class<?> t) {
+            if (t == String.class) {
+                int length = (int) reader.readVarLong();
+                return new String(reader.readBytes(length), StandardCharsets.UTF_8);
+            } else if (t == Long.class || t == long.class) {
+                return reader.readZigZag();
+            } else if (t == Integer.class || t == int.class) {
+                return (int) reader.readZigZag();
+            } else if (t == Double.class || t == double.class) {
+                return Double.longBitsToDouble(reader.readLong());
+            } else if (t == Boolean.class || t == boolean.class) {
+                return reader.readByte() != 0;
+            } else if (t == LocalDateTime.class) {
+                long epochSecond = reader.readZigZag();
+                return LocalDateTime.ofEpochSecond(epochSecond, (int) reader.readVarLong(), ZoneOffset.UTC);
+            } else {
+                return LocalDate.ofEpochDay(reader.readZigZag());
+            }
+        }
+    }
+
+    private static class Writer {
+        private byte[] buf = new byte[128];
+        private int pos;
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            for (int i = 24; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        private void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void writeZigZag(long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        private Reader(byte[] buf) {
+            this.buf = buf;
+            // 跳过魔数
+            this.pos = 1;
+        }
+
+        private byte readByte() {
+            return buf[pos++];
+        }
+
+        private byte[] readBytes(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        private int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        private long readZigZag() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
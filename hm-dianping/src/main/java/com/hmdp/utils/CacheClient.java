@@ -1,157 +1,788 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.*;
 
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+    /**
+     * 本地缓存失效代数的分段数，取2的幂
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+    @Resource
+    private CachePenetrationGuard cachePenetrationGuard;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private ResponseBodyCache responseBodyCache;
 
+    /**
+     * 本地一级缓存，保存已反序列化的对象；redis为二级缓存
+     */
+    @Value("${hmdp.cache.local.enabled:true}")
+    private boolean localEnabled;
+    @Value("${hmdp.cache.local.maximum-size:10000}")
+    private long localMaximumSize;
+    @Value("${hmdp.cache.local.expire-seconds:60}")
+    private long localExpireSeconds;
+    private Cache<String, Object> localCache;
+    /**
+     * 按key哈希分段的失效代数，key失效时所在分段加一。读取redis或数据库前记下代数，写入本地缓存时代数已变化
+     * 说明读取期间key被删除，读到的可能是旧数据，不再写入；其他key的失效不影响写入
+     */
+    private final AtomicLongArray localGenerations = new AtomicLongArray(GENERATION_STRIPES);
+    /**
+     * 缓存值的写入格式：json 或 binary；读取时按数据开头的魔数识别格式，两种格式的旧数据都能读取
+     */
+    @Value("${hmdp.cache.codec:json}")
+    private String codecName;
+    private CacheCodec writeCodec;
+    private final CacheCodec readCodec = new BinaryCacheCodec();
+    /**
+     * 正在从数据库加载的key，同一key的并发未命中共享同一个加载结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+    /**
+     * 提前刷新的激进程度，越大越早刷新
+     */
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
 
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init() {
+        writeCodec = "binary".equals(codecName) ? readCodec : new JsonCacheCodec();
+        if (localEnabled) {
+            localCache = Caffeine.newBuilder()
+                    .maximumSize(localMaximumSize)
+                    .expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
+                    .build();
+        }
+        // 订阅缓存失效消息，删除本地缓存、热点key缓存和响应缓存；三者任一启用都需要订阅
+        if (localEnabled || hotKeyDetector.isEnabled() || responseBodyCache.isEnabled()) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        }
+    }
+
+    /**
+     * 删除缓存，并通知所有节点删除本地缓存
+     * @param key 缓存key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量删除缓存并通知所有节点删除本地缓存，删除和通知在同一个pipeline中发送
+     * @param keys 缓存key
+     */
+    public void deleteBatch(Collection<String> keys) {
+        byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.del(rawKey);
+                connection.publish(channel, rawKey);
+            }
+            return null;
+        });
+        keys.forEach(this::invalidateLocal);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void invalidateLocal(String key) {
+        // 先递增代数再删除，正在读取的请求要么写入后被删除，要么写入时发现代数变化
+        localGenerations.incrementAndGet(stripe(key));
+        if (localCache != null) {
+            localCache.invalidate(key);
+        }
+        hotKeyDetector.invalidate(key);
+        // 与实体缓存key相同的响应缓存一并失效
+        responseBodyCache.invalidate(key);
+    }
+
+    private <R> R getLocal(String key, Class<R> type) {
+        // 记录访问，用于热点key探测
+        hotKeyDetector.record(key);
+        Object value = localCache == null ? null : localCache.getIfPresent(key);
+        if (value == null) {
+            // 本地缓存未命中时，热点key从热点缓存读取
+            value = hotKeyDetector.getIfHot(key);
+        }
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    /**
+     * 读取redis或数据库前调用，返回值传给{@link #putLocal(String, Object, long)}
+     */
+    private long localGeneration(String key) {
+        return localGenerations.get(stripe(key));
+    }
+
+    /**
+     * 写入本地缓存和热点缓存；判断代数和写入在同一个compute中执行，与失效删除互斥
+     * @param generation 读取数据前的{@link #localGeneration(String)}
+     */
+    private void putLocal(String key, Object value, long generation) {
+        if (value == null) {
+            return;
+        }
+        int stripe = stripe(key);
+        if (localCache != null) {
+            localCache.asMap().compute(key, (k, old) -> localGenerations.get(stripe) == generation ? value : old);
+        }
+        hotKeyDetector.putIfHot(key, value, () -> localGenerations.get(stripe) == generation);
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * 读取缓存的原始字节
+     * @return null代表不存在; 空数组代表缓存的空值
+     */
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private void setBytes(String key, byte[] value, Expiration expiration) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 解码缓存值，格式不兼容（如实体字段已变更）时返回null，按未命中处理
+     */
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        try {
+            return readCodec.decode(bytes, type);
+        } catch (Exception e) {
+            log.warn("缓存数据解码失败，key:{}", key, e);
+            return null;
+        }
+    }
+
+    private RedisData decodeWithExpire(String key, byte[] bytes, Class<?> type) {
+        try {
+            return readCodec.decodeWithExpire(bytes, type);
+        } catch (Exception e) {
+            log.warn("缓存数据解码失败，key:{}", key, e);
+            return null;
+        }
+    }
+
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        setBytes(key, writeCodec.encode(value), Expiration.from(time, unit));
     }
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        setBytes(key, writeCodec.encodeWithExpire(value, expireTime), Expiration.persistent());
     }
+    /**
+     * 批量写入数据（pipeline），格式与set一致
+     * @param values key到数据的映射
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        Expiration expiration = Expiration.from(time, unit);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                connection.set(entry.getKey().getBytes(StandardCharsets.UTF_8), writeCodec.encode(entry.getValue()),
+                        expiration, RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 批量写入带过期时间的数据（pipeline），格式与setWithLogicalExpire一致，逻辑过期和提前刷新两种查询都能读取。
+     * 每个key的过期时间随机延后0~10%，避免同一批数据同时过期
+     * @param values key到数据的映射
+     * @param logicalExpire true代表redis中永不过期，只按逻辑过期时间重建; false代表redis TTL与过期时间一致
+     */
+    public void setBatchWithExpire(Map<String, ?> values, Long time, TimeUnit unit, boolean logicalExpire) {
+        long seconds = unit.toSeconds(time);
+        LocalDateTime now = LocalDateTime.now();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                long expireSeconds = seconds + ThreadLocalRandom.current().nextLong(seconds / 10 + 1);
+                byte[] value = writeCodec.encodeWithExpire(entry.getValue(), now.plusSeconds(expireSeconds));
+                connection.set(entry.getKey().getBytes(StandardCharsets.UTF_8), value,
+                        logicalExpire ? Expiration.persistent() : Expiration.seconds(expireSeconds),
+                        RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id,
                                          Class<R> type, Function<ID,R> dbFallback,
                                          Long time,TimeUnit unit){
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if(StrUtil.isNotBlank(json)){
-            return JSONUtil.toBean(json,type);
+        // 布隆过滤器判断id一定不存在时直接返回，不再查询redis和数据库
+        if (!cachePenetrationGuard.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        R r = getLocal(key, type);
+        if(r != null){
+            return r;
         }
-        if(json!=null){
+        long generation = localGeneration(key);
+        byte[] bytes = getBytes(key);
+        if(bytes != null && bytes.length > 0){
+            r = decode(key, bytes, type);
+            if(r != null){
+                putLocal(key, r, generation);
+                return r;
+            }
+        } else if(bytes != null){
             return null;
         }
-        R r = dbFallback.apply(id);
+        r = dbFallback.apply(id);
         if(r == null){
             stringRedisTemplate.opsForValue().set(key,"",CACHE_SHOP_TTL,TimeUnit.MINUTES);
             return null;
         }
        this.set(key,r,time,unit);
+        putLocal(key, r, generation);
 
         return r;
 
     }
+    /**
+     * 查询列表，未命中时查询数据库并写入缓存，空列表同样会被缓存
+     * @return 不可修改的列表；列表中的对象与本地缓存共享，调用方需要修改时应先复制
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> List<R> queryListWithPassThrough(String keyPrefix, ID id, Class<R> elementType,
+                                                    Function<ID, List<R>> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.查询本地缓存
+        List<R> list = getLocal(key, List.class);
+        if (list != null) {
+            return list;
+        }
+        // 2.查询redis
+        long generation = localGeneration(key);
+        byte[] bytes = getBytes(key);
+        if (bytes != null && bytes.length > 0) {
+            try {
+                list = readCodec.decodeList(bytes, elementType);
+            } catch (Exception e) {
+                log.warn("缓存数据解码失败，key:{}", key, e);
+            }
+        }
+        // 3.未命中，查询数据库并写入redis
+        if (list == null) {
+            list = dbFallback.apply(id);
+            this.set(key, list, time, unit);
+        }
+        list = Collections.unmodifiableList(list);
+        putLocal(key, list, generation);
+        return list;
+    }
+
+    /**
+     * 批量查询：本地缓存 -> 一次MGET -> 未命中的id一次查询数据库 -> pipeline回写
+     * @param batchDbFallback 根据未命中的id批量查询数据库，返回id到数据的映射
+     * @return id到数据的映射，按ids的顺序排列，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        // 1.去重，去掉布隆过滤器判断一定不存在的id，并查询本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!cachePenetrationGuard.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            R local = getLocal(keyPrefix + id, type);
+            result.put(id, local);
+            if (local == null) {
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET查询redis
+        long[] generations = remoteIds.stream().mapToLong(id -> localGeneration(keyPrefix + id)).toArray();
+        byte[][] rawKeys = remoteIds.stream()
+                .map(id -> (keyPrefix + id).getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+        List<ID> missIds = new ArrayList<>();
+        Map<ID, Long> missGenerations = new HashMap<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                // 命中空值
+                result.remove(id);
+                continue;
+            }
+            R r = bytes == null ? null : decode(keyPrefix + id, bytes, type);
+            if (r == null) {
+                missIds.add(id);
+                missGenerations.put(id, generations[i]);
+                continue;
+            }
+            result.put(id, r);
+            putLocal(keyPrefix + id, r, generations[i]);
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id一次查询数据库
+        Map<ID, R> loaded = batchDbFallback.apply(missIds);
+        // 4.pipeline回写redis，不存在的id写入空值
+        Expiration expiration = Expiration.from(time, unit);
+        Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                if (r == null) {
+                    connection.set(rawKey, new byte[0], nullExpiration, RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.set(rawKey, writeCodec.encode(r), expiration, RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+        for (ID id : missIds) {
+            R r = loaded.get(id);
+            if (r == null) {
+                result.remove(id);
+            } else {
+                result.put(id, r);
+                putLocal(keyPrefix + id, r, missGenerations.get(id));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量查询带过期时间的数据，格式与queryWithEarlyRefresh一致：本地缓存 -> 一次MGET -> 未命中的id一次查询数据库 -> pipeline回写。
+     * 批量查询不做提前刷新，已过期的数据按未命中处理
+     * @return id到数据的映射，按ids的顺序排列，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatchWithEarlyRefresh(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                         Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        // 1.去重，去掉布隆过滤器判断一定不存在的id，并查询本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!cachePenetrationGuard.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            RedisData local = getLocal(keyPrefix + id, RedisData.class);
+            if (local != null && now.isBefore(local.getExpireTime()) && type.isInstance(local.getData())) {
+                result.put(id, type.cast(local.getData()));
+            } else {
+                result.put(id, null);
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET查询redis
+        long[] generations = remoteIds.stream().mapToLong(id -> localGeneration(keyPrefix + id)).toArray();
+        byte[][] rawKeys = remoteIds.stream()
+                .map(id -> (keyPrefix + id).getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+        List<ID> missIds = new ArrayList<>();
+        Map<ID, Long> missGenerations = new HashMap<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                // 命中空值
+                result.remove(id);
+                continue;
+            }
+            RedisData redisData = bytes == null ? null : decodeWithExpire(keyPrefix + id, bytes, type);
+            if (redisData == null || !now.isBefore(redisData.getExpireTime())) {
+                missIds.add(id);
+                missGenerations.put(id, generations[i]);
+                continue;
+            }
+            result.put(id, type.cast(redisData.getData()));
+            putLocal(keyPrefix + id, redisData, generations[i]);
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id一次查询数据库，记录耗时
+        long begin = System.currentTimeMillis();
+        Map<ID, R> loaded = batchDbFallback.apply(missIds);
+        long delta = System.currentTimeMillis() - begin;
+        // 4.pipeline回写redis，不存在的id写入空值
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        Expiration expiration = Expiration.from(time, unit);
+        Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                if (r == null) {
+                    connection.set(rawKey, new byte[0], nullExpiration, RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.set(rawKey, writeCodec.encodeWithExpire(r, expireTime, delta), expiration,
+                            RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+        for (ID id : missIds) {
+            R r = loaded.get(id);
+            if (r == null) {
+                result.remove(id);
+                continue;
+            }
+            result.put(id, r);
+            RedisData redisData = new RedisData();
+            redisData.setData(r);
+            redisData.setExpireTime(expireTime);
+            redisData.setDelta(delta);
+            putLocal(keyPrefix + id, redisData, missGenerations.get(id));
+        }
+        return result;
+    }
+
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 布隆过滤器判断id一定不存在时直接返回，不再查询redis和数据库
+        if (!cachePenetrationGuard.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 0.查询本地缓存
+        R local = getLocal(key, type);
+        if (local != null) {
+            return local;
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        long generation = localGeneration(key);
+        byte[] bytes = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             // 3.存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 4.命中，需要先把数据反序列化为对象
+        RedisData redisData = decodeWithExpire(key, bytes, type);
+        if (redisData == null) {
+            // 4.1.格式不兼容，同步查询数据库并重写缓存
+            R r = dbFallback.apply(id);
+            this.setWithLogicalExpire(key, r, time, unit);
+            putLocal(key, r, generation);
+            return r;
+        }
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())) {
             // 5.1.未过期，直接返回店铺信息
+            putLocal(key, r, generation);
             return r;
         }
         // 5.2.已过期，需要缓存重建
         // 6.缓存重建
         // 6.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        // 本节点已有该key的重建任务，无需再抢锁
+        boolean isLock = !cacheRebuildExecutor.isPending(key) && tryLock(lockKey);
         // 6.2.判断是否获取锁成功
         if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.3.成功，提交到重建线程池，实现缓存重建
+            boolean submitted = cacheRebuildExecutor.submit(key, () -> {
                 try {
                     // 查询数据库
                     R newR = dbFallback.apply(id);
                     // 重建缓存
                     this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
+                } finally {
                     // 释放锁
                     unlock(lockKey);
                 }
             });
+            if (!submitted) {
+                // 任务未提交，直接释放锁
+                unlock(lockKey);
+            }
         }
         // 6.4.返回过期的商铺信息
         return r;
     }
 
+    /**
+     * 概率提前刷新（XFetch）：缓存中同时保存重建耗时delta和过期时间，每次读取时以
+     * now - delta * beta * ln(rand) >= expireTime 判断是否提前在后台刷新。
+     * 越接近过期、重建越慢，刷新概率越高；热点key读取次数多，会在过期前被刷新，冷key则直接过期。
+     */
+    public <R, ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 布隆过滤器判断id一定不存在时直接返回，不再查询redis和数据库
+        if (!cachePenetrationGuard.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 1.查询本地缓存，本地缓存保存的是带过期时间的RedisData，命中时同样参与提前刷新的判断
+        RedisData redisData = getLocal(key, RedisData.class);
+        if (redisData == null) {
+            // 2.从redis查询
+            long generation = localGeneration(key);
+            byte[] bytes = getBytes(key);
+            // 3.命中空值
+            if (bytes != null && bytes.length == 0) {
+                return null;
+            }
+            redisData = bytes == null ? null : decodeWithExpire(key, bytes, type);
+            if (redisData == null) {
+                // 4.未命中或格式不兼容，同步加载，同一节点同一key只加载一次
+                return type.cast(loadEarlyRefresh(key, id, dbFallback, time, unit));
+            }
+            putLocal(key, redisData, generation);
+        }
+        // 5.按概率判断是否提前刷新
+        if (shouldRefreshEarly(redisData)) {
+            String lockKey = LOCK_SHOP_KEY + id;
+            boolean isLock = !cacheRebuildExecutor.isPending(key) && tryLock(lockKey);
+            if (isLock) {
+                boolean submitted = cacheRebuildExecutor.submit(key, () -> {
+                    try {
+                        setWithEarlyRefresh(key, id, dbFallback, time, unit);
+                    } finally {
+                        unlock(lockKey);
+                    }
+                });
+                if (!submitted) {
+                    unlock(lockKey);
+                }
+            }
+        }
+        // 6.返回缓存数据
+        return type.cast(redisData.getData());
+    }
+
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        // 1 - nextDouble() 取值 (0, 1]，避免 ln(0)
+        double gapMillis = -delta * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return !LocalDateTime.now().plusNanos((long) (gapMillis * 1_000_000)).isBefore(redisData.getExpireTime());
+    }
+
+    private <ID> Object loadEarlyRefresh(String key, ID id, Function<ID, ?> dbFallback, Long time, TimeUnit unit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = inFlightLoads.putIfAbsent(key, future);
+        if (loading != null) {
+            return awaitLoad(loading);
+        }
+        try {
+            Object r = setWithEarlyRefresh(key, id, dbFallback, time, unit);
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 查询数据库并写入缓存，记录本次重建耗时；redis中的真实TTL与过期时间一致，冷key到期后自然删除
+     */
+    private <ID> Object setWithEarlyRefresh(String key, ID id, Function<ID, ?> dbFallback, Long time, TimeUnit unit) {
+        // 1.查询数据库，记录耗时
+        long generation = localGeneration(key);
+        long begin = System.currentTimeMillis();
+        Object r = dbFallback.apply(id);
+        long delta = System.currentTimeMillis() - begin;
+        // 2.不存在，写入空值
+        if (r == null) {
+            setBytes(key, new byte[0], Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES));
+            invalidateLocal(key);
+            return null;
+        }
+        // 3.存在，写入redis和本地缓存
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        setBytes(key, writeCodec.encodeWithExpire(r, expireTime, delta), Expiration.from(time, unit));
+        RedisData redisData = new RedisData();
+        redisData.setData(r);
+        redisData.setExpireTime(expireTime);
+        redisData.setDelta(delta);
+        putLocal(key, redisData, generation);
+        return r;
+    }
+
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 布隆过滤器判断id一定不存在时直接返回，不再查询redis和数据库
+        if (!cachePenetrationGuard.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 0.查询本地缓存
+        R local = getLocal(key, type);
+        if (local != null) {
+            return local;
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        long generation = localGeneration(key);
+        byte[] bytes = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
+        R cached = bytes == null || bytes.length == 0 ? null : decode(key, bytes, type);
+        if (cached != null) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            putLocal(key, cached, generation);
+            return cached;
         }
         // 判断命中的是否是空值
-        if (shopJson != null) {
+        if (bytes != null && bytes.length == 0) {
             // 返回一个错误信息
             return null;
         }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
+        // 4.实现缓存重建，同一节点同一key只有一个线程去竞争分布式锁，其它线程等待它的结果
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = inFlightLoads.putIfAbsent(key, future);
+        if (loading != null) {
+            return type.cast(awaitLoad(loading));
+        }
+        try {
+            R r = rebuildWithMutex(key, id, type, dbFallback, time, unit);
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    private <R, ID> R rebuildWithMutex(
+            String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            while (true) {
+                long generation = localGeneration(key);
+                // 4.1.获取互斥锁
+                boolean isLock = tryLock(lockKey);
+                // 4.2.判断是否获取成功
+                if (!isLock) {
+                    // 4.3.获取锁失败，休眠后检查其它节点是否已重建
+                    Thread.sleep(50);
+                    byte[] bytes = getBytes(key);
+                    R r = bytes == null || bytes.length == 0 ? null : decode(key, bytes, type);
+                    if (r != null) {
+                        putLocal(key, r, generation);
+                        return r;
+                    }
+                    if (bytes != null && bytes.length == 0) {
+                        return null;
+                    }
+                    continue;
+                }
+                try {
+                    // 4.4.获取锁成功，再次检查缓存，可能刚被其它节点重建
+                    byte[] bytes = getBytes(key);
+                    R cached = bytes == null || bytes.length == 0 ? null : decode(key, bytes, type);
+                    if (cached != null) {
+                        putLocal(key, cached, generation);
+                        return cached;
+                    }
+                    // 4.5.根据id查询数据库
+                    R r = dbFallback.apply(id);
+                    // 5.不存在，返回错误
+                    if (r == null) {
+                        // 将空值写入redis
+                        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        // 返回错误信息
+                        return null;
+                    }
+                    // 6.存在，写入redis
+                    this.set(key, r, time, unit);
+                    putLocal(key, r, generation);
+                    return r;
+                } finally {
+                    // 7.释放锁
+                    unlock(lockKey);
+                }
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
         }
-        // 8.返回
-        return r;
+    }
+
+    private Object awaitLoad(CompletableFuture<Object> loading) {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
     }
 
     private boolean tryLock(String key) {
@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 缓存值编解码
+ */
+public interface CacheCodec {
+    /**
+     * 编码对象或对象列表
+     */
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    <T> List<T> decodeList(byte[] bytes, Class<T> elementType);
+
+    /**
+     * 编码逻辑过期数据，等价于编码 RedisData(expireTime, value)
+     */
+    default byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        return encodeWithExpire(value, expireTime, 0);
+    }
+
+    /**
+     * 编码逻辑过期数据，同时记录重建耗时，等价于编码 RedisData(expireTime, value, delta)
+     */
+    byte[] encodeWithExpire(Object value, LocalDateTime expireTime, long delta);
+
+    /**
+     * 解码逻辑过期数据，返回的RedisData中data已是type类型的对象
+     */
+    RedisData decodeWithExpire(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 缓存失效发件箱
+ * <p>
+ * 写操作在同一事务中记录需要失效的缓存key（tb_cache_outbox），事务提交后由中继批量删除缓存并广播本地缓存失效，
+ * 成功后删除事件；失败则按指数退避重试。事务回滚时事件一并回滚，不会误删缓存；
+ * 节点在提交后宕机时，事件由任意节点的定时中继补发。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheInvalidationOutbox {
+    @Resource
+    private CacheOutboxMapper cacheOutboxMapper;
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.outbox.batch-size:200}")
+    private int batchSize;
+    /**
+     * 定时中继的间隔(ms)，用于补发提交后未及时处理的事件
+     */
+    @Value("${hmdp.cache.outbox.relay-interval:1000}")
+    private long relayInterval;
+    /**
+     * 重试退避的上限(s)
+     */
+    @Value("${hmdp.cache.outbox.max-backoff-seconds:60}")
+    private long maxBackoffSeconds;
+    /**
+     * 重试超过该次数后每次失败都记录错误日志
+     */
+    @Value("${hmdp.cache.outbox.alert-retries:5}")
+    private int alertRetries;
+
+    private final AtomicBoolean relayScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService relayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        relayExecutor.scheduleWithFixedDelay(this::relayQuietly, relayInterval, relayInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        relayExecutor.shutdown();
+    }
+
+    /**
+     * 记录缓存失效事件，需在写业务数据的事务中调用
+     * @param keys 需要失效的缓存key
+     */
+    public void record(String... keys) {
+        // 1.与业务数据在同一事务中写入事件
+        for (String key : keys) {
+            CacheOutbox event = new CacheOutbox();
+            event.setCacheKey(key);
+            event.setRetries(0);
+            event.setNextRetryTime(LocalDateTime.now());
+            cacheOutboxMapper.insert(event);
+        }
+        // 2.提交后立即中继，没有事务时直接中继
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    triggerRelay();
+                }
+            });
+        } else {
+            triggerRelay();
+        }
+    }
+
+    private void triggerRelay() {
+        // 合并短时间内的多次触发
+        if (relayScheduled.compareAndSet(false, true)) {
+            relayExecutor.execute(this::relayQuietly);
+        }
+    }
+
+    private void relayQuietly() {
+        relayScheduled.set(false);
+        try {
+            while (relay() >= batchSize) {
+                // 一批已满，继续处理下一批
+            }
+        } catch (Exception e) {
+            log.error("缓存失效事件中继失败", e);
+        }
+    }
+
+    /**
+     * 处理一批到期的事件
+     * @return 本批处理的事件数
+     */
+    private int relay() {
+        // 1.查询到期的事件
+        List<CacheOutbox> events = cacheOutboxMapper.selectList(new QueryWrapper<CacheOutbox>()
+                .le("next_retry_time", LocalDateTime.now())
+                .orderByAsc("id")
+                .last("limit " + batchSize));
+        if (events.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = events.stream().map(CacheOutbox::getId).collect(Collectors.toList());
+        Set<String> keys = events.stream().map(CacheOutbox::getCacheKey).collect(Collectors.toCollection(LinkedHashSet::new));
+        try {
+            // 2.pipeline删除缓存并广播失效，同一key只处理一次
+            cacheClient.deleteBatch(keys);
+        } catch (Exception e) {
+            // 3.失败，按重试次数指数退避
+            for (CacheOutbox event : events) {
+                int retries = event.getRetries() + 1;
+                long backoff = Math.min(maxBackoffSeconds, 1L << Math.min(retries, 30));
+                CacheOutbox update = new CacheOutbox();
+                update.setId(event.getId());
+                update.setRetries(retries);
+                update.setNextRetryTime(LocalDateTime.now().plusSeconds(backoff));
+                cacheOutboxMapper.updateById(update);
+                if (retries >= alertRetries) {
+                    log.error("缓存失效事件多次重试失败，key:{}, retries:{}", event.getCacheKey(), retries);
+                }
+            }
+            log.warn("删除缓存失败，{}个事件稍后重试", events.size(), e);
+            return 0;
+        }
+        // 4.成功，删除事件
+        cacheOutboxMapper.deleteBatchIds(ids);
+        return events.size();
+    }
+}
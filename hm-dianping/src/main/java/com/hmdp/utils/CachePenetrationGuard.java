@@ -0,0 +1,290 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 缓存穿透防护
+ * <p>
+ * 启动时按表中已有的id为每个key前缀构建进程内布隆过滤器。新增数据时加入本节点的过滤器，并通过 cache:bloom 频道
+ * 广播给所有节点；广播可能因断线丢失，各节点还会定时加载比已加载的最大id更大的数据，两者任一到达即可。
+ * 查询redis和数据库之前先判断id是否可能存在，一定不存在的id直接返回空，不再写入空值缓存。
+ * 布隆过滤器不支持删除，已删除的id仍按原有的空值缓存处理。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CachePenetrationGuard implements MessageListener {
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.bloom.enabled:true}")
+    private boolean enabled;
+    /**
+     * 期望误判率
+     */
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double fpp;
+    /**
+     * 单个过滤器的内存上限(KB)，超出时按上限分配，误判率会高于期望值
+     */
+    @Value("${hmdp.cache.bloom.max-memory-kb:4096}")
+    private long maxMemoryKb;
+    /**
+     * 按现有数据量的倍数预留容量，给启动后新增的数据使用
+     */
+    @Value("${hmdp.cache.bloom.growth-factor:2.0}")
+    private double growthFactor;
+    /**
+     * 定时加载新增id的间隔(ms)，用于补上丢失的广播
+     */
+    @Value("${hmdp.cache.bloom.catch-up-interval:5000}")
+    private long catchUpInterval;
+
+    private final Map<String, IdBloomFilter> filters = new ConcurrentHashMap<>();
+    private final Map<String, Runnable> catchUps = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService catchUpExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-catch-up");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        // 先订阅再构建，构建期间其他节点新增的id也能收到
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+        build(CACHE_SHOP_KEY, shopMapper, "id");
+        build(CACHE_BLOG_KEY, blogMapper, "id");
+        catchUpExecutor.scheduleWithFixedDelay(this::catchUp, catchUpInterval, catchUpInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        catchUpExecutor.shutdownNow();
+    }
+
+    /**
+     * 判断id是否可能存在
+     * @param keyPrefix 缓存key前缀
+     * @param id 数据id
+     * @return false代表一定不存在; 没有对应过滤器或过滤器尚未构建完成时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        IdBloomFilter filter = filters.get(keyPrefix);
+        if (filter == null || !filter.ready || !(id instanceof Number)) {
+            return true;
+        }
+        filter.checked.increment();
+        if (filter.mightContain(((Number) id).longValue())) {
+            return true;
+        }
+        filter.rejected.increment();
+        return false;
+    }
+
+    /**
+     * 新增数据后加入本节点的过滤器，并广播给所有节点
+     */
+    public void put(String keyPrefix, Long id) {
+        IdBloomFilter filter = filters.get(keyPrefix);
+        if (filter == null || id == null) {
+            return;
+        }
+        filter.put(id);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + id);
+        } catch (Exception e) {
+            // 其他节点在下次定时加载时补上
+            log.warn("广播布隆过滤器新增id失败，keyPrefix:{}, id:{}", keyPrefix, id, e);
+        }
+    }
+
+    /**
+     * 其他节点新增的id，消息内容为 keyPrefix + id
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        filters.forEach((keyPrefix, filter) -> {
+            if (!key.startsWith(keyPrefix)) {
+                return;
+            }
+            try {
+                filter.put(Long.parseLong(key.substring(keyPrefix.length())));
+            } catch (NumberFormatException e) {
+                log.warn("无效的布隆过滤器消息：{}", key);
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        filters.forEach((keyPrefix, filter) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("ready", filter.ready);
+            item.put("bits", filter.bitSize);
+            item.put("hashFunctions", filter.hashFunctions);
+            item.put("insertions", filter.insertions.sum());
+            item.put("maxLoadedId", filter.maxLoadedId);
+            item.put("checked", filter.checked.sum());
+            item.put("rejected", filter.rejected.sum());
+            stats.put(keyPrefix, item);
+        });
+        return stats;
+    }
+
+    private <T> void build(String keyPrefix, BaseMapper<T> mapper, String idColumn) {
+        try {
+            // 1.按数据量和误判率计算过滤器大小
+            long count = mapper.selectCount(null);
+            long expected = Math.max(LOAD_BATCH_SIZE, (long) (count * growthFactor));
+            long bits = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            long maxBits = maxMemoryKb * 1024 * 8;
+            if (bits > maxBits) {
+                log.warn("布隆过滤器超出内存上限，keyPrefix:{}, 需要{}KB, 上限{}KB", keyPrefix, bits / 8 / 1024, maxMemoryKb);
+                bits = maxBits;
+            }
+            int hashFunctions = Math.max(1, (int) Math.round((double) bits / expected * Math.log(2)));
+            // 2.先注册过滤器再加载，加载期间新增的id也能写入；加载完成前不拦截请求
+            IdBloomFilter filter = new IdBloomFilter(bits, hashFunctions);
+            filters.put(keyPrefix, filter);
+            // 3.按id分批加载已有数据
+            load(filter, mapper, idColumn);
+            filter.ready = true;
+            catchUps.put(keyPrefix, () -> load(filter, mapper, idColumn));
+            log.info("布隆过滤器构建完成，keyPrefix:{}, 数据量:{}, bits:{}, hash:{}", keyPrefix, count, bits, hashFunctions);
+        } catch (Exception e) {
+            // 构建失败时不拦截任何请求
+            filters.remove(keyPrefix);
+            log.error("布隆过滤器构建失败，keyPrefix:{}", keyPrefix, e);
+        }
+    }
+
+    private void catchUp() {
+        catchUps.forEach((keyPrefix, catchUp) -> {
+            try {
+                catchUp.run();
+            } catch (Exception e) {
+                log.warn("布隆过滤器加载新增id失败，keyPrefix:{}", keyPrefix, e);
+            }
+        });
+    }
+
+    /**
+     * 按id分批加载比已加载的最大id更大的数据
+     */
+    private static <T> void load(IdBloomFilter filter, BaseMapper<T> mapper, String idColumn) {
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                    .select(idColumn).gt(idColumn, filter.maxLoadedId).orderByAsc(idColumn)
+                    .last("limit " + LOAD_BATCH_SIZE));
+            for (Object id : ids) {
+                filter.put(((Number) id).longValue());
+            }
+            if (!ids.isEmpty()) {
+                filter.maxLoadedId = ((Number) ids.get(ids.size() - 1)).longValue();
+            }
+            if (ids.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+    }
+
+    private static class IdBloomFilter {
+        private final AtomicLongArray words;
+        private final long bitSize;
+        private final int hashFunctions;
+        private volatile boolean ready;
+        /**
+         * 从数据库加载过的最大id
+         */
+        private volatile long maxLoadedId;
+        private final LongAdder insertions = new LongAdder();
+        private final LongAdder checked = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private IdBloomFilter(long bits, int hashFunctions) {
+            int wordCount = (int) ((bits + 63) >>> 6);
+            this.words = new AtomicLongArray(wordCount);
+            this.bitSize = (long) wordCount << 6;
+            this.hashFunctions = hashFunctions;
+        }
+
+        private void put(long id) {
+            long h1 = mix(id);
+            long h2 = mix(h1);
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+                long mask = 1L << index;
+                int word = (int) (index >>> 6);
+                if ((words.get(word) & mask) == 0) {
+                    words.getAndAccumulate(word, mask, (a, b) -> a | b);
+                }
+            }
+            insertions.increment();
+        }
+
+        private boolean mightContain(long id) {
+            long h1 = mix(id);
+            long h2 = mix(h1);
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+                if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 64位混淆（murmur3 fmix64），让连续id均匀分布
+         */
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池
+ * <p>
+ * 所有逻辑过期缓存共用一个有界线程池；同一key同时只会有一个重建任务在排队或执行，
+ * 队列满时拒绝新任务（调用方继续返回旧数据），并统计队列深度、排队耗时等指标。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+    @Value("${hmdp.cache.rebuild.core-size:4}")
+    private int coreSize;
+    @Value("${hmdp.cache.rebuild.max-size:10}")
+    private int maxSize;
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+    @Value("${hmdp.cache.rebuild.await-termination-seconds:10}")
+    private long awaitTerminationSeconds;
+
+    private ThreadPoolExecutor executor;
+    /**
+     * 排队或执行中的重建key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(coreSize, maxSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "cache-rebuild-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 等待已提交的重建任务执行完毕
+        executor.shutdown();
+        if (!executor.awaitTermination(awaitTerminationSeconds, TimeUnit.SECONDS)) {
+            log.warn("缓存重建任务未在{}秒内完成，强制关闭，剩余任务数：{}", awaitTerminationSeconds, executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * key是否已有重建任务在排队或执行
+     */
+    public boolean isPending(String key) {
+        return pendingKeys.contains(key);
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key，同一key同时只保留一个任务
+     * @param task 重建任务
+     * @return true代表已提交; false代表重复或被拒绝，任务不会执行
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        long enqueueTime = System.currentTimeMillis();
+        try {
+            executor.execute(() -> {
+                long wait = System.currentTimeMillis() - enqueueTime;
+                started.increment();
+                totalWaitMillis.add(wait);
+                maxWaitMillis.accumulateAndGet(wait, Math::max);
+                try {
+                    task.run();
+                    completed.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("缓存重建失败，key:{}", key, e);
+                } finally {
+                    pendingKeys.remove(key);
+                }
+            });
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，放弃重建，key:{}", key);
+            return false;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long startedCount = started.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("pendingKeys", pendingKeys.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgWaitMillis", startedCount == 0 ? 0 : totalWaitMillis.sum() / startedCount);
+        stats.put("maxWaitMillis", maxWaitMillis.get());
+        return stats;
+    }
+}
@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动预热
+ * <p>
+ * 所有bean初始化完成后、web服务器开始监听端口前，分页读取热点店铺、店铺类型、店铺的优惠券列表和进行中的秒杀券，
+ * 用pipeline批量写入redis。预热在生命周期阶段 {@link #PHASE} 同步执行，早于web服务器启动的阶段，
+ * 预热结束前端口不会打开，请求不会进入。
+ * 预热失败只记录日志，不阻止启动，未预热的数据仍按原有方式在首次访问时加载。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheWarmUp implements SmartLifecycle {
+    /**
+     * web服务器在 Integer.MAX_VALUE - 1 阶段启动（WebServerStartStopLifecycle），预热需在此之前完成
+     */
+    public static final int PHASE = Integer.MAX_VALUE - 2;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Value("${hmdp.cache.warm-up.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.warm-up.page-size:500}")
+    private int pageSize;
+    /**
+     * 预热的店铺数量，按销量从高到低
+     */
+    @Value("${hmdp.cache.warm-up.shop-limit:10000}")
+    private int shopLimit;
+    /**
+     * 店铺是否按逻辑过期写入（redis中永不过期）
+     */
+    @Value("${hmdp.cache.warm-up.logical-expire:false}")
+    private boolean logicalExpire;
+
+    private volatile String stage = "pending";
+    private volatile long shopsLoaded;
+    private volatile long shopTypesLoaded;
+    private volatile long voucherListsLoaded;
+    private volatile long vouchersLoaded;
+    private volatile long elapsedMillis;
+    private volatile boolean running;
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!enabled) {
+            stage = "disabled";
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.店铺
+            stage = "shop";
+            warmUpShops();
+            // 2.店铺类型
+            stage = "shopType";
+            warmUpShopTypes();
+            // 3.优惠券列表
+            stage = "voucherList";
+            warmUpVoucherLists();
+            // 4.秒杀库存
+            stage = "voucher";
+            warmUpSeckillStock();
+            stage = "done";
+        } catch (Exception e) {
+            stage = "failed";
+            log.error("缓存预热失败，已完成阶段前的数据仍然有效", e);
+        } finally {
+            elapsedMillis = System.currentTimeMillis() - begin;
+            log.info("缓存预热结束，店铺:{}, 店铺类型:{}, 优惠券列表:{}, 秒杀券:{}, 耗时:{}ms",
+                    shopsLoaded, shopTypesLoaded, voucherListsLoaded, vouchersLoaded, elapsedMillis);
+        }
+    }
+
+    private void warmUpShops() {
+        for (int current = 1; shopsLoaded < shopLimit; current++) {
+            // 1.按销量分页查询，不统计总数
+            Page<Shop> page = new Page<>(current, pageSize, false);
+            List<Shop> shops = shopService.query().orderByDesc("sold").orderByAsc("id").page(page).getRecords();
+            if (shops.isEmpty()) {
+                break;
+            }
+            boolean lastPage = shops.size() < pageSize;
+            if (shopsLoaded + shops.size() > shopLimit) {
+                shops = shops.subList(0, (int) (shopLimit - shopsLoaded));
+            }
+            // 2.pipeline写入，格式与CacheClient查询时一致
+            Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            cacheClient.setBatchWithExpire(values, CACHE_SHOP_TTL, TimeUnit.MINUTES, logicalExpire);
+            shopsLoaded += shops.size();
+            log.info("预热店铺进度：{}/{}", shopsLoaded, shopLimit);
+            if (lastPage) {
+                break;
+            }
+        }
+    }
+
+    private void warmUpShopTypes() {
+        // 构建本节点的店铺类型快照，redis中没有时同时写入redis
+        List<?> typeList = (List<?>) shopTypeService.queryList().getData();
+        shopTypesLoaded = typeList.size();
+    }
+
+    /**
+     * 为有上架优惠券的店铺写入优惠券列表，只缓存券的元数据，库存在查询时从redis读取
+     */
+    private void warmUpVoucherLists() {
+        long lastShopId = 0;
+        while (true) {
+            // 1.按店铺id分页查询有上架优惠券的店铺
+            List<Object> shopIds = voucherMapper.selectObjs(new QueryWrapper<Voucher>()
+                    .select("DISTINCT shop_id").eq("status", 1).gt("shop_id", lastShopId)
+                    .orderByAsc("shop_id").last("limit " + pageSize));
+            if (shopIds.isEmpty()) {
+                break;
+            }
+            // 2.查询每个店铺的优惠券，pipeline写入
+            Map<String, List<Voucher>> values = new HashMap<>(shopIds.size() * 2);
+            for (Object shopId : shopIds) {
+                values.put(CACHE_VOUCHER_LIST_KEY + shopId, voucherMapper.queryVoucherOfShop(((Number) shopId).longValue()));
+            }
+            cacheClient.setBatch(values, CACHE_VOUCHER_LIST_TTL, TimeUnit.MINUTES);
+            voucherListsLoaded += shopIds.size();
+            if (shopIds.size() < pageSize) {
+                break;
+            }
+            lastShopId = ((Number) shopIds.get(shopIds.size() - 1)).longValue();
+        }
+    }
+
+    /**
+     * 为未结束的秒杀券补齐redis中缺失的库存，已存在的库存不会被覆盖；分桶的券跳过
+     */
+    private void warmUpSeckillStock() {
+        LocalDateTime now = LocalDateTime.now();
+        for (int current = 1; ; current++) {
+            Page<SeckillVoucher> page = new Page<>(current, pageSize, false);
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", now).orderByAsc("voucher_id").page(page).getRecords();
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            // 1.一次MGET查出分桶标记
+            List<String> shards = stringRedisTemplate.opsForValue().multiGet(vouchers.stream()
+                    .map(v -> SECKILL_SHARDS_KEY + v.getVoucherId()).collect(Collectors.toList()));
+            // 2.pipeline SET NX
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < vouchers.size(); i++) {
+                    if (shards != null && shards.get(i) != null) {
+                        continue;
+                    }
+                    SeckillVoucher voucher = vouchers.get(i);
+                    connection.set((SECKILL_STOCK_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8),
+                            voucher.getStock().toString().getBytes(StandardCharsets.UTF_8),
+                            Expiration.persistent(), RedisStringCommands.SetOption.ifAbsent());
+                }
+                return null;
+            });
+            vouchersLoaded += vouchers.size();
+            if (vouchers.size() < pageSize) {
+                break;
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stage", stage);
+        stats.put("shops", shopsLoaded);
+        stats.put("shopTypes", shopTypesLoaded);
+        stats.put("voucherLists", voucherListsLoaded);
+        stats.put("vouchers", vouchersLoaded);
+        stats.put("elapsedMillis", elapsedMillis);
+        return stats;
+    }
+}
@@ -0,0 +1,257 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * 按经纬度网格划分的内存空间索引
+ * <p>
+ * 每个格子保存格内的点，写入时复制格子的数组，查询不加锁。
+ * 查询时从查询点所在的格子开始按圈向外扫描半径外接矩形内的格子，用有界堆保留最近的K个点，
+ * 堆满且下一圈的最近可能距离已超过堆顶时提前结束。
+ * </p>
+ */
+public class GeoGrid {
+    /**
+     * 地球半径(m)，与redis GEO计算距离使用的值一致
+     */
+    public static final double EARTH_RADIUS = 6372797.560856;
+    /**
+     * 平面近似距离与球面距离的误差余量，近似距离超出余量的点不再计算球面距离
+     */
+    private static final double APPROX_MARGIN = 1.01;
+
+    private final double cellDegrees;
+    private final Map<Long, Point[]> cells = new ConcurrentHashMap<>();
+    private final Map<Long, Point> points = new ConcurrentHashMap<>();
+
+    public GeoGrid(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * 写入或移动一个点
+     */
+    public synchronized void put(long id, double x, double y) {
+        Point old = points.get(id);
+        if (old != null) {
+            if (old.x == x && old.y == y) {
+                return;
+            }
+            removeFromCell(old);
+        }
+        Point point = new Point(id, x, y);
+        long key = key(cell(x), cell(y));
+        Point[] cell = cells.get(key);
+        Point[] updated = cell == null ? new Point[1] : Arrays.copyOf(cell, cell.length + 1);
+        updated[updated.length - 1] = point;
+        cells.put(key, updated);
+        points.put(id, point);
+    }
+
+    public synchronized void remove(long id) {
+        Point old = points.remove(id);
+        if (old != null) {
+            removeFromCell(old);
+        }
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    /**
+     * 查询半径内最近的limit个点
+     * @param radius 半径(m)
+     * @return 按距离从近到远排列
+     */
+    public List<Hit> search(double x, double y, double radius, int limit) {
+        return search(x, y, radius, limit, null);
+    }
+
+    /**
+     * 查询半径内满足条件的最近的limit个点
+     * @param filter 按id过滤，null代表不过滤
+     * @return 按距离从近到远排列
+     */
+    public List<Hit> search(double x, double y, double radius, int limit, LongPredicate filter) {
+        if (limit <= 0 || points.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.计算半径外接矩形覆盖的格子范围
+        double dLat = Math.toDegrees(radius / EARTH_RADIUS);
+        double dLon = Math.min(dLat / Math.max(Math.cos(Math.toRadians(y)), 0.01), 180);
+        long minX = cell(x - dLon);
+        long maxX = cell(x + dLon);
+        long minY = cell(y - dLat);
+        long maxY = cell(y + dLat);
+        // 2.扫描格子，用大顶堆保留最近的limit个点
+        Query query = new Query(x, y, dLat, radius, limit, filter);
+        PriorityQueue<Hit> heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, Comparator.comparingDouble(Hit::getDistance).reversed());
+        if ((maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+            // 覆盖的格子比已有的格子还多，直接扫描所有格子
+            for (Point[] cell : cells.values()) {
+                collect(cell, query, heap);
+            }
+        } else {
+            long centerX = cell(x);
+            long centerY = cell(y);
+            long maxRing = Math.max(Math.max(centerX - minX, maxX - centerX), Math.max(centerY - minY, maxY - centerY));
+            // 格子的最小边长(m)，按范围内纬度最高处的经度方向计算
+            double cosMin = Math.max(Math.cos(Math.toRadians(Math.min(Math.abs(y) + dLat, 90))), 0.01);
+            double cellMeters = Math.toRadians(cellDegrees) * EARTH_RADIUS * Math.min(1, cosMin);
+            for (long ring = 0; ring <= maxRing; ring++) {
+                // 第ring圈的点与查询点至少相隔ring-1个格子
+                if (heap.size() == limit && (ring - 1) * cellMeters > heap.peek().distance * APPROX_MARGIN) {
+                    break;
+                }
+                for (long cx = centerX - ring; cx <= centerX + ring; cx++) {
+                    boolean edge = cx == centerX - ring || cx == centerX + ring;
+                    for (long cy = centerY - ring; cy <= centerY + ring; cy += edge ? 1 : Math.max(1, 2 * ring)) {
+                        if (cx < minX || cx > maxX || cy < minY || cy > maxY) {
+                            continue;
+                        }
+                        Point[] cell = cells.get(key(cx, cy));
+                        if (cell != null) {
+                            collect(cell, query, heap);
+                        }
+                    }
+                }
+            }
+        }
+        // 3.按距离排序
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(Comparator.comparingDouble(Hit::getDistance));
+        return hits;
+    }
+
+    private static void collect(Point[] cell, Query query, PriorityQueue<Hit> heap) {
+        for (Point point : cell) {
+            // 1.纬度差超出范围的点不计算距离
+            if (Math.abs(point.y - query.y) > query.dLat) {
+                continue;
+            }
+            // 2.先用平面近似距离过滤，明显超出半径或不会进入前K个的点不计算球面距离
+            double bound = heap.size() < query.limit ? query.radius : Math.min(query.radius, heap.peek().distance);
+            if (query.approxDistance(point) > bound * APPROX_MARGIN) {
+                continue;
+            }
+            double distance = distance(query.x, query.y, point.x, point.y);
+            if (distance > query.radius) {
+                continue;
+            }
+            if (query.filter != null && !query.filter.test(point.id)) {
+                continue;
+            }
+            if (heap.size() < query.limit) {
+                heap.add(new Hit(point.id, distance));
+            } else if (distance < heap.peek().distance) {
+                heap.poll();
+                heap.add(new Hit(point.id, distance));
+            }
+        }
+    }
+
+    /**
+     * 两点间的球面距离(m)
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(x2 - x1) / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(a));
+    }
+
+    private void removeFromCell(Point point) {
+        long key = key(cell(point.x), cell(point.y));
+        Point[] cell = cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        Point[] updated = Arrays.stream(cell).filter(p -> p.id != point.id).toArray(Point[]::new);
+        if (updated.length == 0) {
+            cells.remove(key);
+        } else {
+            cells.put(key, updated);
+        }
+    }
+
+    private long cell(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long key(long cx, long cy) {
+        return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 一次查询的参数，预先计算查询点纬度的余弦
+     */
+    private static class Query {
+        private final double x;
+        private final double y;
+        private final double dLat;
+        private final double radius;
+        private final int limit;
+        private final LongPredicate filter;
+        private final double cosY;
+
+        private Query(double x, double y, double dLat, double radius, int limit, LongPredicate filter) {
+            this.x = x;
+            this.y = y;
+            this.dLat = dLat;
+            this.radius = radius;
+            this.limit = limit;
+            this.filter = filter;
+            this.cosY = Math.cos(Math.toRadians(y));
+        }
+
+        /**
+         * 等距圆柱投影下的平面距离(m)，半径几公里内与球面距离的误差远小于1%
+         */
+        private double approxDistance(Point point) {
+            double dx = Math.toRadians(point.x - x) * cosY;
+            double dy = Math.toRadians(point.y - y);
+            return EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    private static class Point {
+        private final long id;
+        private final double x;
+        private final double y;
+
+        private Point(long id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    public static class Hit {
+        private final long id;
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
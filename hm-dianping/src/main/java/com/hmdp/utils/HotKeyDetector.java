@@ -0,0 +1,277 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BooleanSupplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点key探测
+ * <p>
+ * 用滑动窗口的count-min sketch统计CacheClient中每个key的访问次数，窗口由若干个时间桶组成，定时淘汰最旧的桶。
+ * 窗口内访问次数超过阈值的key判定为热点，通过 cache:hotkey 频道广播给所有节点，
+ * 各节点在持有期内把热点key的数据放入短TTL的本地缓存，热点消退后自动失效。
+ * </p>
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.hot-key.window-seconds:10}")
+    private int windowSeconds;
+    @Value("${hmdp.cache.hot-key.buckets:5}")
+    private int bucketCount;
+    /**
+     * 每个sketch行的计数器个数，取2的幂
+     */
+    @Value("${hmdp.cache.hot-key.sketch-width:4096}")
+    private int width;
+    /**
+     * 窗口内访问次数达到该值判定为热点
+     */
+    @Value("${hmdp.cache.hot-key.threshold:500}")
+    private int threshold;
+    @Value("${hmdp.cache.hot-key.top-k:50}")
+    private int topK;
+    /**
+     * 热点标记的持有时间，期间未再次被判定为热点则取消
+     */
+    @Value("${hmdp.cache.hot-key.hold-seconds:30}")
+    private long holdSeconds;
+    @Value("${hmdp.cache.hot-key.local-ttl-seconds:5}")
+    private long localTtlSeconds;
+
+    private AtomicIntegerArray[] buckets;
+    private volatile int current;
+    private int mask;
+    /**
+     * 本节点统计出的热点候选及其窗口内的估计访问次数
+     */
+    private final Map<String, Integer> candidates = new ConcurrentHashMap<>();
+    /**
+     * 所有节点广播的热点key及其标记的过期时间
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+    private Cache<String, Object> hotCache;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hot-key-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        width = Integer.highestOneBit(Math.max(width, 64));
+        mask = width - 1;
+        buckets = new AtomicIntegerArray[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new AtomicIntegerArray(DEPTH * width);
+        }
+        hotCache = Caffeine.newBuilder()
+                .maximumSize(Math.max(1000, topK * 10L))
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_HOT_KEY_CHANNEL));
+        long bucketMillis = Math.max(1, windowSeconds * 1000L / bucketCount);
+        scheduler.scheduleAtFixedRate(this::rotate, bucketMillis, bucketMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次访问
+     * @param key 缓存key
+     */
+    public void record(String key) {
+        if (!enabled) {
+            return;
+        }
+        // 1.当前桶计数加一
+        AtomicIntegerArray bucket = buckets[current];
+        int hash = key.hashCode();
+        for (int row = 0; row < DEPTH; row++) {
+            bucket.incrementAndGet(row * width + index(hash, row));
+        }
+        // 2.估计窗口内的访问次数，达到阈值则成为候选
+        int count = estimate(hash);
+        if (count < threshold) {
+            return;
+        }
+        candidates.put(key, count);
+        // 3.新出现的热点广播给所有节点
+        Long hotUntil = hotKeys.get(key);
+        if (hotUntil == null || hotUntil < System.currentTimeMillis()) {
+            markHot(key);
+        }
+    }
+
+    public boolean isHot(String key) {
+        Long hotUntil = hotKeys.get(key);
+        return hotUntil != null && hotUntil >= System.currentTimeMillis();
+    }
+
+    /**
+     * 读取热点key的本地数据
+     * @return 不是热点或本地没有数据时返回null
+     */
+    public Object getIfHot(String key) {
+        return enabled && isHot(key) ? hotCache.getIfPresent(key) : null;
+    }
+
+    /**
+     * 热点key的数据放入本地缓存
+     * @param current 写入时判断数据是否仍然有效，与写入原子执行；读取数据后key已失效时不写入
+     */
+    public void putIfHot(String key, Object value, BooleanSupplier current) {
+        if (enabled && value != null && isHot(key)) {
+            hotCache.asMap().compute(key, (k, old) -> current.getAsBoolean() ? value : old);
+        }
+    }
+
+    public void invalidate(String key) {
+        if (enabled) {
+            hotCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 当前热点key，按本节点估计的访问次数从高到低排列
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        hotKeys.forEach((key, hotUntil) -> {
+            if (hotUntil < now) {
+                return;
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("count", candidates.getOrDefault(key, 0));
+            item.put("hotUntil", hotUntil);
+            list.add(item);
+        });
+        list.sort((a, b) -> Integer.compare((Integer) b.get("count"), (Integer) a.get("count")));
+        return list;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        hotKeys.put(new String(message.getBody(), StandardCharsets.UTF_8),
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(holdSeconds));
+    }
+
+    private void markHot(String key) {
+        hotKeys.put(key, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(holdSeconds));
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, key);
+        } catch (Exception e) {
+            log.warn("广播热点key失败，key:{}", key, e);
+        }
+    }
+
+    private void rotate() {
+        try {
+            // 1.清空最旧的桶并切换为当前桶
+            int next = (current + 1) % bucketCount;
+            AtomicIntegerArray bucket = buckets[next];
+            for (int i = 0; i < bucket.length(); i++) {
+                bucket.set(i, 0);
+            }
+            current = next;
+            // 2.重新估计候选的访问次数，去掉已冷却的key，只保留前K个
+            List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+            for (String key : candidates.keySet()) {
+                int count = estimate(key.hashCode());
+                if (count < threshold) {
+                    candidates.remove(key);
+                } else {
+                    candidates.put(key, count);
+                    entries.add(new AbstractMap.SimpleEntry<>(key, count));
+                }
+            }
+            entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+            long now = System.currentTimeMillis();
+            long halfHold = TimeUnit.SECONDS.toMillis(holdSeconds) / 2;
+            for (int i = 0; i < entries.size(); i++) {
+                String key = entries.get(i).getKey();
+                if (i >= topK) {
+                    candidates.remove(key);
+                    continue;
+                }
+                // 3.仍然是热点，持有期过半时续期并重新广播
+                Long hotUntil = hotKeys.get(key);
+                if (hotUntil == null || hotUntil - now < halfHold) {
+                    markHot(key);
+                }
+            }
+            // 4.清理过期的热点标记
+            hotKeys.values().removeIf(hotUntil -> hotUntil < now);
+        } catch (Exception e) {
+            log.error("热点key统计窗口滚动失败", e);
+        }
+    }
+
+    private int estimate(int hash) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int offset = row * width + index(hash, row);
+            int sum = 0;
+            for (AtomicIntegerArray bucket : buckets) {
+                sum += bucket.get(offset);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+}
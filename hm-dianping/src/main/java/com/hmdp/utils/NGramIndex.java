@@ -0,0 +1,245 @@
+package com.hmdp.utils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * n-gram倒排索引，用于中文名称的前缀和子串搜索
+ * <p>
+ * 文本规范化（NFKC、转小写、去掉空白）后按单字和二元组、开头的一两个字、完整文本分别建立三张倒排表。
+ * 倒排表直接保存文档，按权重从高到低排列，写入时复制，查询不加锁。
+ * 结果分三档：完全匹配 > 前缀匹配 > 子串匹配，同一档内按权重从高到低，每个文档只出现在一档中。
+ * 每一档按权重顺序扫描倒排表并校验文本，取够 offset+limit 个即结束，不需要对全部匹配排序。
+ * </p>
+ */
+public class NGramIndex {
+    private static final Doc[] EMPTY = new Doc[0];
+    private static final Comparator<Doc> ORDER = Comparator
+            .comparingLong((Doc doc) -> doc.weight).reversed()
+            .thenComparingLong(doc -> doc.id);
+
+    /**
+     * 单字和二元组
+     */
+    private final Map<String, Doc[]> postings = new ConcurrentHashMap<>();
+    /**
+     * 开头的一个字和两个字
+     */
+    private final Map<String, Doc[]> prefixPostings = new ConcurrentHashMap<>();
+    /**
+     * 完整文本
+     */
+    private final Map<String, Doc[]> exactPostings = new ConcurrentHashMap<>();
+    private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+
+    /**
+     * 批量写入，每个倒排表只复制、排序一次，用于构建索引
+     */
+    public synchronized void putAll(Collection<Doc> batch) {
+        Map<String, List<Doc>> grams = new HashMap<>();
+        Map<String, List<Doc>> prefixes = new HashMap<>();
+        Map<String, List<Doc>> exacts = new HashMap<>();
+        for (Doc doc : batch) {
+            if (docs.containsKey(doc.id)) {
+                remove(doc.id);
+            }
+            docs.put(doc.id, doc);
+            if (doc.text.isEmpty()) {
+                continue;
+            }
+            for (String gram : indexGrams(doc.text)) {
+                grams.computeIfAbsent(gram, k -> new ArrayList<>()).add(doc);
+            }
+            for (String prefix : prefixes(doc.text)) {
+                prefixes.computeIfAbsent(prefix, k -> new ArrayList<>()).add(doc);
+            }
+            exacts.computeIfAbsent(doc.text, k -> new ArrayList<>()).add(doc);
+        }
+        merge(postings, grams);
+        merge(prefixPostings, prefixes);
+        merge(exactPostings, exacts);
+    }
+
+    private static void merge(Map<String, Doc[]> table, Map<String, List<Doc>> added) {
+        added.forEach((key, list) -> {
+            Doc[] current = table.getOrDefault(key, EMPTY);
+            Doc[] merged = Arrays.copyOf(current, current.length + list.size());
+            for (int i = 0; i < list.size(); i++) {
+                merged[current.length + i] = list.get(i);
+            }
+            Arrays.sort(merged, ORDER);
+            table.put(key, merged);
+        });
+    }
+
+    public void put(long id, String text, long weight) {
+        putAll(Collections.singletonList(new Doc(id, text, weight)));
+    }
+
+    public synchronized void remove(long id) {
+        Doc old = docs.remove(id);
+        if (old == null || old.text.isEmpty()) {
+            return;
+        }
+        for (String gram : indexGrams(old.text)) {
+            unlink(postings, gram, id);
+        }
+        for (String prefix : prefixes(old.text)) {
+            unlink(prefixPostings, prefix, id);
+        }
+        unlink(exactPostings, old.text, id);
+    }
+
+    private static void unlink(Map<String, Doc[]> table, String key, long id) {
+        Doc[] current = table.get(key);
+        if (current == null) {
+            return;
+        }
+        Doc[] updated = Arrays.stream(current).filter(doc -> doc.id != id).toArray(Doc[]::new);
+        if (updated.length == 0) {
+            table.remove(key);
+        } else {
+            table.put(key, updated);
+        }
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    /**
+     * 搜索包含关键词的文本
+     * @return 排序后第offset个开始的最多limit个id
+     */
+    public List<Long> search(String keyword, int offset, int limit) {
+        String query = normalize(keyword);
+        if (query.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int k = offset + limit;
+        List<Long> ids = new ArrayList<>(Math.min(k, 64));
+        // 1.完全匹配
+        for (Doc doc : exactPostings.getOrDefault(query, EMPTY)) {
+            if (ids.size() >= k) {
+                break;
+            }
+            if (doc.text.equals(query)) {
+                ids.add(doc.id);
+            }
+        }
+        // 2.前缀匹配，排除完全匹配
+        String prefix = query.substring(0, Math.min(2, query.length()));
+        for (Doc doc : prefixPostings.getOrDefault(prefix, EMPTY)) {
+            if (ids.size() >= k) {
+                break;
+            }
+            if (doc.text.length() > query.length() && doc.text.startsWith(query)) {
+                ids.add(doc.id);
+            }
+        }
+        // 3.子串匹配，排除以关键词开头的（已在前两档）；扫描关键词的gram中最短的倒排表，任一gram不存在则没有结果
+        Doc[] shortest = null;
+        for (String gram : queryGrams(query)) {
+            Doc[] list = postings.get(gram);
+            if (list == null) {
+                shortest = EMPTY;
+                break;
+            }
+            if (shortest == null || list.length < shortest.length) {
+                shortest = list;
+            }
+        }
+        for (Doc doc : shortest == null ? EMPTY : shortest) {
+            if (ids.size() >= k) {
+                break;
+            }
+            if (!doc.text.startsWith(query) && doc.text.indexOf(query, 1) > 0) {
+                ids.add(doc.id);
+            }
+        }
+        return offset >= ids.size() ? Collections.emptyList() : ids.subList(offset, ids.size());
+    }
+
+    /**
+     * 规范化：全角转半角、转小写、去掉空白
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+        StringBuilder sb = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 建索引的gram：全部单字和二元组
+     */
+    private static Set<String> indexGrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+        }
+        for (int i = 0; i + 2 <= text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 开头的一个字和两个字
+     */
+    private static Set<String> prefixes(String text) {
+        Set<String> prefixes = new LinkedHashSet<>();
+        prefixes.add(text.substring(0, 1));
+        if (text.length() >= 2) {
+            prefixes.add(text.substring(0, 2));
+        }
+        return prefixes;
+    }
+
+    /**
+     * 查询的gram：单字关键词取单字，否则取全部二元组
+     */
+    private static Set<String> queryGrams(String query) {
+        Set<String> grams = new LinkedHashSet<>();
+        if (query.length() == 1) {
+            grams.add(query);
+        }
+        for (int i = 0; i + 2 <= query.length(); i++) {
+            grams.add(query.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    public static class Doc {
+        private final long id;
+        private final String text;
+        private final long weight;
+
+        /**
+         * @param weight 权重，匹配程度相同时权重高的靠前
+         */
+        public Doc(long id, String text, long weight) {
+            this.id = id;
+            this.text = normalize(text);
+            this.weight = weight;
+        }
+    }
+}
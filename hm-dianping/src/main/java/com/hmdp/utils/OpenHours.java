@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 营业时间
+ * <p>
+ * 解析 tb_shop.open_hours，格式为逗号分隔的 HH:mm-HH:mm，结束时间不晚于开始时间代表营业到次日，
+ * 如 "11:00-13:50,17:00-20:50"、"11:30-03:00"、"00:00-24:00"。
+ * 解析结果按原字符串缓存，相同的营业时间只解析一次。
+ * </p>
+ */
+public class OpenHours {
+    private static final int MINUTES_OF_DAY = 24 * 60;
+    private static final int MAX_CACHED = 10000;
+    private static final OpenHours UNKNOWN = new OpenHours(new int[0]);
+    private static final Map<String, OpenHours> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 营业区间，每两个元素为一段 [开始分钟, 结束分钟)，跨天的区间拆成两段
+     */
+    private final int[] ranges;
+
+    private OpenHours(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * 解析营业时间
+     * @return 无法解析时返回的对象isKnown()为false
+     */
+    public static OpenHours of(String openHours) {
+        if (StrUtil.isBlank(openHours)) {
+            return UNKNOWN;
+        }
+        OpenHours cached = CACHE.get(openHours);
+        if (cached != null) {
+            return cached;
+        }
+        OpenHours parsed = parse(openHours);
+        if (CACHE.size() < MAX_CACHED) {
+            CACHE.put(openHours, parsed);
+        }
+        return parsed;
+    }
+
+    public boolean isKnown() {
+        return ranges.length > 0;
+    }
+
+    /**
+     * 指定时间是否在营业，营业时间未知时返回false
+     */
+    public boolean isOpen(LocalTime time) {
+        int minute = time.getHour() * 60 + time.getMinute();
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (minute >= ranges[i] && minute < ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static OpenHours parse(String openHours) {
+        List<Integer> ranges = new ArrayList<>();
+        for (String range : openHours.split("[,，]", -1)) {
+            String[] parts = range.trim().split("-");
+            if (parts.length != 2) {
+                return UNKNOWN;
+            }
+            int start = toMinute(parts[0]);
+            int end = toMinute(parts[1]);
+            if (start < 0 || end < 0) {
+                return UNKNOWN;
+            }
+            if (end > start) {
+                ranges.add(start);
+                ranges.add(end);
+            } else {
+                // 营业到次日
+                ranges.add(start);
+                ranges.add(MINUTES_OF_DAY);
+                ranges.add(0);
+                ranges.add(end);
+            }
+        }
+        return new OpenHours(ranges.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * HH:mm转为当天的分钟数，24:00为一天的结束
+     * @return 格式错误时返回-1
+     */
+    private static int toMinute(String time) {
+        String[] parts = time.trim().split(":");
+        if (parts.length != 2) {
+            return -1;
+        }
+        try {
+            int hour = Integer.parseInt(parts[0].trim());
+            int minute = Integer.parseInt(parts[1].trim());
+            if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || (hour == 24 && minute > 0)) {
+                return -1;
+            }
+            return hour * 60 + minute;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -1,13 +1,35 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_TTL;
+
+@Slf4j
 @Component
 public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1640995200L;
@@ -15,12 +37,91 @@ public class RedisIdWorker {
      * 序列号的位数
      */
     private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    /**
+     * 雪花id：1位标记 + 40位毫秒时间戳 + 10位workerId + 12位序列号。
+     * 标记位在秒级时间戳id中2056年前都为0，两种id不会重叠
+     */
+    private static final long SNOWFLAKE_FLAG = 1L << 62;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    /**
+     * 允许等待的最大时钟回拨，超过则拒绝生成id
+     */
+    private static final long MAX_BACKWARD_MILLIS = 5;
+    /**
+     * workerId租约的安全余量：租约从最近一次成功续期发出请求时算起，TTL减去该余量后视为过期，不再生成id。
+     * 其他节点最早在TTL到期后才能占用同一个workerId，与本节点停止生成id之间至少间隔该余量，
+     * 节点间时钟偏差小于该余量时两者的时间戳不会重叠
+     */
+    private static final long LEASE_SAFETY_MILLIS = 5000;
+    private static final DefaultRedisScript<Long> WORKER_LEASE_SCRIPT;
+    static {
+        WORKER_LEASE_SCRIPT = new DefaultRedisScript<>();
+        WORKER_LEASE_SCRIPT.setLocation(new ClassPathResource("worker_lease.lua"));
+        WORKER_LEASE_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
     @Resource
     private RedisIdWorker redisIdWorker;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    /**
+     * 序列号获取方式：redis 每个id执行一次INCR；segment 号段模式，一次INCRBY取一段序列号在本地分配；
+     * snowflake 雪花算法，启动时从redis租用workerId，之后生成id不访问网络
+     */
+    @Value("${hmdp.id.mode:redis}")
+    private String mode;
+    /**
+     * 号段长度
+     */
+    @Value("${hmdp.id.segment.step:1000}")
+    private int segmentStep;
+    /**
+     * 当前号段剩余比例低于该值时异步预取下一个号段
+     */
+    @Value("${hmdp.id.segment.low-water:0.2}")
+    private double segmentLowWater;
+
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService idWorkerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String workerName = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString(true);
+    private volatile int workerId = -1;
+    private final Object leaseLock = new Object();
+    private volatile boolean leased;
+    /**
+     * 租约在本节点的过期时间（System.nanoTime），不受系统时钟调整影响
+     */
+    private volatile long leaseDeadline;
+    private long lastTimestamp = -1L;
+    private long sequence = 0L;
+
+    @PostConstruct
+    private void init() {
+        if (!"snowflake".equals(mode)) {
+            return;
+        }
+        leaseWorkerId();
+        long period = Math.max(1, ID_WORKER_TTL / 3);
+        idWorkerExecutor.scheduleWithFixedDelay(this::renewWorkerId, period, period, TimeUnit.SECONDS);
+    }
 
     public long nextId(String keyPrefix) {
+        if ("snowflake".equals(mode)) {
+            return nextSnowflakeId();
+        }
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
@@ -28,9 +129,11 @@ public class RedisIdWorker {
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = "segment".equals(mode)
+                ? segmentBuffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).nextSeq(date)
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
@@ -42,4 +145,218 @@ public class RedisIdWorker {
 //
 //    }
     }
+
+    @PreDestroy
+    private void destroy() {
+        idWorkerExecutor.shutdownNow();
+        if (workerId >= 0) {
+            // 释放workerId租约
+            stringRedisTemplate.execute(UNLOCK_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), workerName);
+        }
+    }
+
+    private synchronized long nextSnowflakeId() {
+        // 0.租约过期则同步续期或重新租用，失败时拒绝生成id
+        if (!isLeaseValid()) {
+            ensureLease();
+        }
+        long now = System.currentTimeMillis();
+        // 1.时钟回拨检测
+        if (now < lastTimestamp) {
+            long offset = lastTimestamp - now;
+            if (offset > MAX_BACKWARD_MILLIS) {
+                throw new IllegalStateException("时钟回拨" + offset + "ms，拒绝生成id");
+            }
+            // 小幅回拨，等待时钟追上
+            now = waitUntil(lastTimestamp);
+        }
+        // 2.同一毫秒内序列号自增，用完则等到下一毫秒
+        if (now == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                now = waitUntil(lastTimestamp + 1);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = now;
+        // 3.拼接并返回
+        return SNOWFLAKE_FLAG
+                | (now - BEGIN_TIMESTAMP * 1000) << (WORKER_BITS + SEQUENCE_BITS)
+                | (long) workerId << SEQUENCE_BITS
+                | sequence;
+    }
+
+    private long waitUntil(long timestamp) {
+        long now = System.currentTimeMillis();
+        while (now < timestamp) {
+            Thread.yield();
+            now = System.currentTimeMillis();
+        }
+        return now;
+    }
+
+    private boolean isLeaseValid() {
+        return leased && System.nanoTime() - leaseDeadline < 0;
+    }
+
+    /**
+     * 从发出请求的时间算起，redis收到请求时才开始计算TTL，本地的过期时间总是早于redis
+     */
+    private void confirmLease(long requestNanos) {
+        leaseDeadline = requestNanos + TimeUnit.SECONDS.toNanos(ID_WORKER_TTL) - TimeUnit.MILLISECONDS.toNanos(LEASE_SAFETY_MILLIS);
+        leased = true;
+    }
+
+    /**
+     * 租约过期时在生成id的线程上续期，续期失败则重新租用
+     */
+    private void ensureLease() {
+        synchronized (leaseLock) {
+            if (isLeaseValid()) {
+                return;
+            }
+            try {
+                if (workerId < 0 || !renewLease()) {
+                    leaseWorkerId();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("workerId租约已过期，无法生成id", e);
+            }
+        }
+    }
+
+    private void leaseWorkerId() {
+        leased = false;
+        // 从随机位置开始，SET id:worker:{n} workerName NX EX ttl 占用第一个空闲的workerId
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int id = (start + i) & MAX_WORKER_ID;
+            long requestNanos = System.nanoTime();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, workerName, ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (BooleanUtil.isTrue(success)) {
+                workerId = id;
+                confirmLease(requestNanos);
+                log.info("租用workerId成功：{}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("workerId已全部被占用");
+    }
+
+    /**
+     * 续期当前workerId
+     * @return false代表租约已被其他节点占用
+     */
+    private boolean renewLease() {
+        long requestNanos = System.nanoTime();
+        Long result = stringRedisTemplate.execute(WORKER_LEASE_SCRIPT,
+                Collections.singletonList(ID_WORKER_KEY + workerId), workerName, ID_WORKER_TTL.toString());
+        if (result != null && result == 1) {
+            confirmLease(requestNanos);
+            return true;
+        }
+        // 立即停止使用当前workerId
+        leased = false;
+        return false;
+    }
+
+    private void renewWorkerId() {
+        synchronized (leaseLock) {
+            try {
+                if (renewLease()) {
+                    return;
+                }
+                log.error("workerId租约丢失：{}，重新租用", workerId);
+                leaseWorkerId();
+            } catch (Exception e) {
+                // 租约到期前仍可生成id，到期后由生成id的线程重试，失败则拒绝生成id
+                log.error("workerId续期失败：{}", workerId, e);
+            }
+        }
+    }
+
+    /**
+     * 号段 [cursor, max]，同一天内的序列号
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+        /**
+         * 分配到该序列号时触发下一个号段的预取
+         */
+        private final long prefetchAt;
+
+        private Segment(String date, long start, long max, long prefetchAt) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    /**
+     * 双号段缓冲：当前号段内CAS分配，余量低于水位时异步预取下一个号段，用完后直接切换
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long nextSeq(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    // 1.当前号段内分配
+                    long seq = segment.cursor.getAndIncrement();
+                    if (seq <= segment.max) {
+                        if (seq == segment.prefetchAt) {
+                            prefetch(date);
+                        }
+                        return seq;
+                    }
+                }
+                // 2.号段用完或跨天，切换号段
+                synchronized (this) {
+                    if (current == segment) {
+                        Segment prefetched = next;
+                        next = null;
+                        current = prefetched != null && prefetched.date.equals(date) ? prefetched : fetch(date);
+                    }
+                }
+            }
+        }
+
+        private void prefetch(String date) {
+            if (!loading.compareAndSet(false, true)) {
+                return;
+            }
+            idWorkerExecutor.execute(() -> {
+                try {
+                    next = fetch(date);
+                } catch (Exception e) {
+                    // 预取失败时由号段用完的线程同步获取
+                    log.error("预取id号段失败，keyPrefix:{}", keyPrefix, e);
+                } finally {
+                    loading.set(false);
+                }
+            });
+        }
+
+        private Segment fetch(String date) {
+            // INCRBY icr:{prefix}:{date} step，一次取得一段序列号
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentStep);
+            long start = end - segmentStep + 1;
+            long prefetchAt = start + (long) (segmentStep * (1 - segmentLowWater));
+            return new Segment(date, start, end, Math.min(prefetchAt, end));
+        }
+    }
 }
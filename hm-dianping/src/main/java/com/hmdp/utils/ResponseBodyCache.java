@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地响应缓存，保存{@link ResponseCache}接口序列化后的响应
+ */
+@Component
+public class ResponseBodyCache {
+    /**
+     * 失效代数的分段数，取2的幂
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
+    @Value("${hmdp.cache.response.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.response.maximum-size:10000}")
+    private long maximumSize;
+
+    private Cache<String, Entry> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    /**
+     * 按key哈希分段的失效代数，key失效时所在分段加一；请求开始后该分段发生过失效的响应不写入缓存，
+     * 避免旧数据在失效后被写回，其他key的失效不影响写入
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private static class Entry {
+        private final byte[] body;
+        private final long expireAt;
+
+        private Entry(byte[] body, long expireAt) {
+            this.body = body;
+            this.expireAt = expireAt;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        // 各接口的有效期不同，由Entry自行判断，这里只限制最长保留时间
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public byte[] get(String key) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null || entry.expireAt < System.currentTimeMillis()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.body;
+    }
+
+    public long generation(String key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * 写入响应缓存
+     * @param generation 请求开始时的{@link #generation(String)}
+     */
+    public void put(String key, byte[] body, long ttlSeconds, long generation) {
+        int stripe = stripe(key);
+        if (generation != generations.get(stripe)) {
+            return;
+        }
+        Entry entry = new Entry(body, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds));
+        // 判断代数和写入在同一个compute中执行，与invalidate的删除互斥，避免判断之后发生的失效被覆盖
+        cache.asMap().compute(key, (k, old) -> generation == generations.get(stripe) ? entry : old);
+    }
+
+    public void invalidate(String key) {
+        // 先递增代数再删除，并发的put要么写入后被删除，要么写入时发现代数变化
+        generations.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.estimatedSize());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        return stats;
+    }
+}
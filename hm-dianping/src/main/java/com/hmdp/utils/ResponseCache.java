@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 缓存接口序列化后的响应
+ * <p>
+ * 标注在返回Result的controller方法上，成功的响应序列化一次后保存在本地，命中时直接写入servlet输出流，
+ * 不再调用controller和Jackson。key为 prefix + 参数值，与实体缓存key一致时，实体缓存失效会同时清除响应缓存。
+ * </p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ResponseCache {
+    /**
+     * 缓存key前缀
+     */
+    String prefix();
+
+    /**
+     * 组成key的请求参数（路径变量或查询参数），多个参数以":"连接
+     */
+    String[] params() default {};
+
+    /**
+     * 本地缓存的有效期(s)
+     */
+    long ttlSeconds() default 60;
+}
@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * 命中响应缓存时直接写出缓存的响应，未命中时把key放入请求属性，由{@link com.hmdp.config.ResponseCacheAdvice}写入缓存
+ */
+public class ResponseCacheInterceptor implements HandlerInterceptor {
+    public static final String CACHE_KEY_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".KEY";
+    public static final String GENERATION_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".GENERATION";
+
+    private final ResponseBodyCache responseBodyCache;
+
+    public ResponseCacheInterceptor(ResponseBodyCache responseBodyCache) {
+        this.responseBodyCache = responseBodyCache;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!responseBodyCache.isEnabled() || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        ResponseCache annotation = ((HandlerMethod) handler).getMethodAnnotation(ResponseCache.class);
+        if (annotation == null) {
+            return true;
+        }
+        // 1.按注解拼接key
+        String key = buildKey(request, annotation);
+        if (key == null) {
+            return true;
+        }
+        // 2.命中，直接写出
+        long generation = responseBodyCache.generation(key);
+        byte[] body = responseBodyCache.get(key);
+        if (body != null) {
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            return false;
+        }
+        // 3.未命中，继续执行controller
+        request.setAttribute(CACHE_KEY_ATTRIBUTE, key);
+        request.setAttribute(GENERATION_ATTRIBUTE, generation);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String buildKey(HttpServletRequest request, ResponseCache annotation) {
+        Map<String, String> pathVariables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        StringBuilder key = new StringBuilder(annotation.prefix());
+        String[] params = annotation.params();
+        for (int i = 0; i < params.length; i++) {
+            String value = pathVariables == null ? null : pathVariables.get(params[i]);
+            if (value == null) {
+                value = request.getParameter(params[i]);
+            }
+            if (value == null) {
+                // 缺少参数时不缓存
+                return null;
+            }
+            if (i > 0) {
+                key.append(':');
+            }
+            key.append(value);
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀本地库存闸门
+ * <p>
+ * 每个节点从 seckill:stock:{id}（或其分桶）中批量预占一段库存，在JVM内扣减；
+ * 本地库存用完才访问redis续租，redis库存耗尽后在本地标记售罄，售罄后的请求不再访问redis。
+ * 节点正常关闭时把未用完的库存归还到最近一次预占的桶，宕机则这部分库存少卖。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillStockGate {
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("stock_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillStockShards seckillStockShards;
+    @Value("${hmdp.seckill.local-gate.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.local-gate.lease-size:50}")
+    private int leaseSize;
+    /**
+     * 售罄标记的有效期，过期后再去redis确认一次，以便感知其它节点归还的库存
+     */
+    @Value("${hmdp.seckill.local-gate.sold-out-recheck:1000}")
+    private long soldOutRecheck;
+
+    private final Map<Long, LocalStock> stocks = new ConcurrentHashMap<>();
+
+    private static class LocalStock {
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile long soldOutUntil;
+        /**
+         * 最近一次预占的分桶数和桶；只在本地库存用完后才预占，剩余库存基本都来自这个桶
+         */
+        private volatile int leasedShards = 1;
+        private volatile int leasedBucket;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 尝试从本地预占的库存中扣减一件
+     * @param voucherId 优惠券id
+     * @return true代表扣减成功; false代表库存不足
+     */
+    public boolean tryAcquire(Long voucherId) {
+        LocalStock stock = stocks.computeIfAbsent(voucherId, id -> new LocalStock());
+        while (true) {
+            // 1.本地已售罄，直接拒绝
+            if (stock.soldOutUntil > System.currentTimeMillis()) {
+                return false;
+            }
+            // 2.本地库存充足，CAS扣减
+            int remaining = stock.remaining.get();
+            if (remaining > 0) {
+                if (stock.remaining.compareAndSet(remaining, remaining - 1)) {
+                    return true;
+                }
+                continue;
+            }
+            // 3.本地库存用完，加锁续租，同一节点同一券只有一个线程访问redis
+            synchronized (stock) {
+                if (stock.remaining.get() > 0) {
+                    continue;
+                }
+                if (stock.soldOutUntil > System.currentTimeMillis()) {
+                    return false;
+                }
+                long leased = lease(voucherId, stock);
+                if (leased <= 0) {
+                    // 4.redis库存耗尽，标记售罄
+                    stock.soldOutUntil = System.currentTimeMillis() + soldOutRecheck;
+                    return false;
+                }
+                // 5.预占成功，留一件给当前请求
+                stock.remaining.addAndGet((int) leased - 1);
+                return true;
+            }
+        }
+    }
+
+    private long lease(Long voucherId, LocalStock stock) {
+        // 分桶的券从随机桶开始依次尝试，直到预占成功或所有桶都已售罄
+        int shards = seckillStockShards.shardCount(voucherId);
+        int start = shards <= 1 ? 0 : ThreadLocalRandom.current().nextInt(shards);
+        for (int i = 0; i < shards; i++) {
+            int bucket = (start + i) % shards;
+            Long leased = stringRedisTemplate.execute(
+                    LEASE_SCRIPT,
+                    Collections.singletonList(seckillStockShards.stockKey(voucherId, shards, bucket)),
+                    String.valueOf(leaseSize)
+            );
+            if (leased != null && leased > 0) {
+                stock.leasedShards = shards;
+                stock.leasedBucket = bucket;
+                return leased;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 归还一件本地库存，用于扣减成功但下单失败（如重复下单）的情况
+     * @param voucherId 优惠券id
+     */
+    public void release(Long voucherId) {
+        LocalStock stock = stocks.get(voucherId);
+        if (stock != null) {
+            stock.remaining.incrementAndGet();
+            stock.soldOutUntil = 0;
+        }
+    }
+
+    @PreDestroy
+    private void returnLeasedStock() {
+        // 把未用完的本地库存归还redis
+        for (Map.Entry<Long, LocalStock> entry : stocks.entrySet()) {
+            LocalStock stock = entry.getValue();
+            int remaining = stock.remaining.getAndSet(0);
+            if (remaining <= 0) {
+                continue;
+            }
+            try {
+                stringRedisTemplate.opsForValue().increment(
+                        seckillStockShards.stockKey(entry.getKey(), stock.leasedShards, stock.leasedBucket), remaining);
+            } catch (Exception e) {
+                log.error("归还本地库存失败，voucherId:{}, stock:{}", entry.getKey(), remaining, e);
+            }
+        }
+    }
+}
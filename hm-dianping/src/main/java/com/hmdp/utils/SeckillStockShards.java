@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分桶
+ * <p>
+ * 热点券的库存可拆成K个桶，每个桶的库存key和订单key使用 {voucherId:bucket} 作为hash tag，
+ * 不同桶落在redis cluster的不同slot上；同一个桶的库存key和订单key在同一slot，可在一个lua脚本中操作。
+ * 用户固定落在按userId哈希选出的主桶，一人一单只在主桶的订单集合中判断。
+ * </p>
+ */
+@Component
+public class SeckillStockShards {
+    /**
+     * 本地缓存的分桶券数量上限
+     */
+    private static final int MAX_CACHED_VOUCHERS = 10000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 券的分桶数在创建后不会变化，只缓存已分桶的券；未分桶（或尚未创建）的券不缓存，
+     * 以免在 seckill:shards:{id} 写入前被查询过的券一直按未分桶处理
+     */
+    private final Cache<Long, Integer> shardCounts = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED_VOUCHERS)
+            .build();
+
+    /**
+     * 查询券的分桶数
+     * @param voucherId 优惠券id
+     * @return 分桶数，未分桶返回1
+     */
+    public int shardCount(Long voucherId) {
+        Integer cached = shardCounts.getIfPresent(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        int count = StrUtil.isBlank(shards) ? 1 : Integer.parseInt(shards);
+        if (count > 1) {
+            shardCounts.put(voucherId, count);
+        }
+        return count;
+    }
+
+    /**
+     * 批量查询券的分桶数，本地没有缓存的券一次MGET查询
+     * @return 券id到分桶数，未分桶为1
+     */
+    public Map<Long, Integer> shardCounts(Collection<Long> voucherIds) {
+        Map<Long, Integer> counts = new HashMap<>(voucherIds.size() * 2);
+        List<Long> missed = new ArrayList<>();
+        for (Long voucherId : voucherIds) {
+            Integer cached = shardCounts.getIfPresent(voucherId);
+            if (cached != null) {
+                counts.put(voucherId, cached);
+            } else {
+                missed.add(voucherId);
+            }
+        }
+        if (missed.isEmpty()) {
+            return counts;
+        }
+        List<String> keys = new ArrayList<>(missed.size());
+        missed.forEach(id -> keys.add(SECKILL_SHARDS_KEY + id));
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; i < missed.size(); i++) {
+            String shards = values == null ? null : values.get(i);
+            int count = StrUtil.isBlank(shards) ? 1 : Integer.parseInt(shards);
+            if (count > 1) {
+                shardCounts.put(missed.get(i), count);
+            }
+            counts.put(missed.get(i), count);
+        }
+        return counts;
+    }
+
+    /**
+     * 只查询本地缓存，不访问redis
+     * @return 已知的分桶数，未缓存时返回1
+     */
+    public int cachedShardCount(Long voucherId) {
+        Integer cached = shardCounts.getIfPresent(voucherId);
+        return cached == null ? 1 : cached;
+    }
+
+    public String stockKey(Long voucherId, int shards, int bucket) {
+        return shards <= 1 ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    public String orderKey(Long voucherId, int shards, int bucket) {
+        return shards <= 1 ? SECKILL_ORDER_KEY + voucherId : SECKILL_ORDER_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    /**
+     * 用户所在的主桶
+     */
+    public int homeBucket(Long userId, int shards) {
+        // 打散连续的userId，避免相邻用户集中在同一个桶
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 32)) & Integer.MAX_VALUE) % shards;
+    }
+}
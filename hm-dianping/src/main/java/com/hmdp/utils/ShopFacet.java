@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 附近商铺搜索用于过滤和排序的商铺属性，创建后不再修改
+ */
+public class ShopFacet {
+    private final long id;
+    private final int score;
+    private final long avgPrice;
+    private final int sold;
+    private final OpenHours openHours;
+
+    private ShopFacet(long id, int score, long avgPrice, int sold, OpenHours openHours) {
+        this.id = id;
+        this.score = score;
+        this.avgPrice = avgPrice;
+        this.sold = sold;
+        this.openHours = openHours;
+    }
+
+    public static ShopFacet of(Shop shop) {
+        return new ShopFacet(shop.getId(),
+                shop.getScore() == null ? 0 : shop.getScore(),
+                shop.getAvgPrice() == null ? 0 : shop.getAvgPrice(),
+                shop.getSold() == null ? 0 : shop.getSold(),
+                OpenHours.of(shop.getOpenHours()));
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public long getAvgPrice() {
+        return avgPrice;
+    }
+
+    public int getSold() {
+        return sold;
+    }
+
+    public OpenHours getOpenHours() {
+        return openHours;
+    }
+}
@@ -0,0 +1,252 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 附近商铺的本地空间索引
+ * <p>
+ * 启动后按id分批读取tb_shop的坐标和评分、均价、销量、营业时间，按商铺类型构建网格索引，
+ * 附近商铺查询以及按这些属性过滤、排序的附近搜索都不再访问redis GEO和数据库。
+ * 店铺写入后发件箱会广播店铺缓存失效消息，各节点收到后重新读取该店铺并更新索引；
+ * 加载和更新在同一个线程中执行，不会互相覆盖。索引加载完成前查询仍走redis GEO。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements MessageListener {
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.shop.geo.local-index.enabled:false}")
+    private boolean enabled;
+    /**
+     * 网格边长(度)
+     */
+    @Value("${hmdp.shop.geo.local-index.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    /**
+     * 商铺类型到网格索引
+     */
+    private final Map<Long, GeoGrid> grids = new ConcurrentHashMap<>();
+    /**
+     * 商铺id到商铺类型，商铺修改类型时从原类型的索引中删除
+     */
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+    /**
+     * 商铺id到过滤、排序用的属性
+     */
+    private final Map<Long, ShopFacet> facets = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-geo-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        // 先订阅再加载，加载期间的更新排在加载之后执行
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        updater.execute(this::load);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        updater.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 查询某类商铺中半径内最近的limit个
+     * @param radius 半径(m)
+     * @return 按距离从近到远排列
+     */
+    public List<GeoGrid.Hit> search(Long typeId, double x, double y, double radius, int limit) {
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? Collections.emptyList() : grid.search(x, y, radius, limit);
+    }
+
+    /**
+     * 查询某类商铺中半径内满足条件的前limit个
+     * <p>
+     * 没有过滤条件且按距离排序时直接取最近的limit个；否则以半径内最近的maxCandidates个商铺为候选，
+     * 在候选中过滤、排序，与redis GEO查询的候选范围一致
+     * </p>
+     * @param filter 过滤条件，null代表不过滤
+     * @param order 排序，null代表按距离从近到远；相同时按距离
+     */
+    public List<GeoGrid.Hit> search(Long typeId, double x, double y, double radius, int limit, int maxCandidates,
+                                    Predicate<ShopFacet> filter, Comparator<ShopFacet> order) {
+        GeoGrid grid = grids.get(typeId);
+        if (grid == null) {
+            return Collections.emptyList();
+        }
+        // 1.只按距离取前limit个，扫描到即结束
+        if (filter == null && order == null) {
+            return grid.search(x, y, radius, limit, facets::containsKey);
+        }
+        // 2.取最近的maxCandidates个作为候选，再过滤并选出前limit个
+        List<GeoGrid.Hit> candidates = grid.search(x, y, radius, maxCandidates);
+        return rank(candidates, facets::get, filter == null ? facet -> true : filter, order, limit);
+    }
+
+    /**
+     * 过滤候选并选出前limit个
+     * @param candidates 按距离从近到远排列的候选
+     * @param facets 根据商铺id查询属性，查不到的商铺不在结果中
+     * @param order 排序，null代表按距离；相同时按距离
+     */
+    public static List<GeoGrid.Hit> rank(List<GeoGrid.Hit> candidates, Function<Long, ShopFacet> facets,
+                                         Predicate<ShopFacet> filter, Comparator<ShopFacet> order, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<GeoGrid.Hit> result = new ArrayList<>(Math.min(limit, candidates.size()));
+        if (order == null) {
+            // 候选已按距离排列，取满足条件的前limit个
+            for (GeoGrid.Hit hit : candidates) {
+                ShopFacet facet = facets.apply(hit.getId());
+                if (facet != null && filter.test(facet)) {
+                    result.add(hit);
+                    if (result.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+        // 用大顶堆保留最靠前的limit个
+        Comparator<GeoGrid.Hit> comparator = Comparator
+                .comparing((GeoGrid.Hit hit) -> facets.apply(hit.getId()), order)
+                .thenComparingDouble(GeoGrid.Hit::getDistance);
+        PriorityQueue<GeoGrid.Hit> heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, comparator.reversed());
+        for (GeoGrid.Hit hit : candidates) {
+            ShopFacet facet = facets.apply(hit.getId());
+            if (facet == null || !filter.test(facet)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(hit);
+            } else if (comparator.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(hit);
+            }
+        }
+        result.addAll(heap);
+        result.sort(comparator);
+        return result;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (!key.startsWith(CACHE_SHOP_KEY)) {
+            return;
+        }
+        long id;
+        try {
+            id = Long.parseLong(key.substring(CACHE_SHOP_KEY.length()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        updater.execute(() -> refresh(id));
+    }
+
+    private void load() {
+        long begin = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y", "score", "avg_price", "sold", "open_hours")
+                        .gt("id", lastId).orderByAsc("id")
+                        .last("limit " + LOAD_BATCH_SIZE));
+                shops.forEach(this::put);
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            ready = true;
+            log.info("商铺空间索引构建完成，商铺数:{}, 耗时:{}ms", shopTypes.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 构建失败时查询仍走redis GEO
+            log.error("商铺空间索引构建失败", e);
+        }
+    }
+
+    private void refresh(long id) {
+        try {
+            Shop shop = shopMapper.selectById(id);
+            if (shop == null) {
+                remove(id);
+            } else {
+                put(shop);
+            }
+        } catch (Exception e) {
+            log.error("更新商铺空间索引失败，id:{}", id, e);
+        }
+    }
+
+    private void put(Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            remove(shop.getId());
+            return;
+        }
+        Long oldType = shopTypes.put(shop.getId(), shop.getTypeId());
+        if (oldType != null && !oldType.equals(shop.getTypeId())) {
+            grids.get(oldType).remove(shop.getId());
+        }
+        // 先更新属性再更新位置，新位置被查到时属性已是最新
+        facets.put(shop.getId(), ShopFacet.of(shop));
+        grids.computeIfAbsent(shop.getTypeId(), k -> new GeoGrid(cellDegrees))
+                .put(shop.getId(), shop.getX(), shop.getY());
+    }
+
+    private void remove(long id) {
+        Long type = shopTypes.remove(id);
+        if (type != null) {
+            grids.get(type).remove(id);
+        }
+        facets.remove(id);
+    }
+}
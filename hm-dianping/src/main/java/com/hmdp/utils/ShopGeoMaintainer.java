@@ -0,0 +1,334 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_GEO_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 维护 shop:geo:{typeId}
+ * <p>
+ * 商铺新增、修改、删除提交后，按数据库中的最新数据写入所属类型的GEO，类型变化时从原类型中删除，删除的商铺从GEO中移除。
+ * 同步失败只记录日志，由定时校对修复：校对按id分批读取数据库，pipeline GEOPOS比对后补齐缺失和位置变化的商铺，
+ * 再用ZSCAN分批扫描每个类型的GEO，删除数据库中已不存在或类型已变化的商铺。校对持有分布式锁，同一时间只有一个节点执行。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ShopGeoMaintainer {
+    /**
+     * 坐标比对的误差(度)，GEO按52位geohash保存坐标，读出的值与写入值有微小偏差
+     */
+    private static final double POSITION_TOLERANCE = 1e-5;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Value("${hmdp.shop.geo.reconcile.enabled:true}")
+    private boolean reconcileEnabled;
+    /**
+     * 定时校对的间隔(分钟)
+     */
+    @Value("${hmdp.shop.geo.reconcile.interval-minutes:30}")
+    private long reconcileIntervalMinutes;
+    @Value("${hmdp.shop.geo.reconcile.batch-size:1000}")
+    private int batchSize;
+
+    private volatile Map<String, Object> lastReconcile = new LinkedHashMap<>();
+    /**
+     * 已提交、尚未开始执行的手动校对
+     */
+    private final AtomicBoolean reconcileSubmitted = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shop-geo-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (reconcileEnabled) {
+            scheduler.scheduleWithFixedDelay(this::reconcileQuietly,
+                    reconcileIntervalMinutes, reconcileIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 商铺写入提交后同步GEO，没有事务时立即同步
+     * @param id 商铺id
+     * @param oldTypeId 写入前的类型，新增时为null
+     */
+    public void syncAfterCommit(Long id, Long oldTypeId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sync(id, oldTypeId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                sync(id, oldTypeId);
+            }
+        });
+    }
+
+    private void sync(Long id, Long oldTypeId) {
+        try {
+            // 1.读取提交后的最新数据，并发写入时以最后一次读取为准
+            Shop shop = shopMapper.selectById(id);
+            String member = id.toString();
+            boolean located = shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    // 2.删除或类型变化时从原类型中移除
+                    if (oldTypeId != null && (!located || !oldTypeId.equals(shop.getTypeId()))) {
+                        operations.opsForZSet().remove(SHOP_GEO_KEY + oldTypeId, member);
+                    }
+                    // 3.写入当前类型，没有坐标的商铺从当前类型中移除
+                    if (located) {
+                        operations.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+                    } else if (shop != null && shop.getTypeId() != null) {
+                        operations.opsForZSet().remove(SHOP_GEO_KEY + shop.getTypeId(), member);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("同步商铺GEO失败，等待定时校对修复，id:{}", id, e);
+        }
+    }
+
+    /**
+     * 在校对线程中执行一次校对，不占用调用方线程
+     * @return false代表已有手动校对等待执行
+     */
+    public boolean submitReconcile() {
+        if (!reconcileSubmitted.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            scheduler.execute(() -> {
+                reconcileSubmitted.set(false);
+                reconcileQuietly();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 应用关闭中
+            reconcileSubmitted.set(false);
+            return false;
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("校对商铺GEO失败", e);
+        }
+    }
+
+    /**
+     * 比对数据库和redis，修复shop:geo中缺失、位置错误和多余的商铺
+     * @return 本次校对结果；其他节点正在校对时返回空
+     */
+    public Map<String, Object> reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_SHOP_GEO_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            log.info("其他节点正在校对商铺GEO，跳过");
+            return new LinkedHashMap<>();
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long[] counts = new long[4];
+            // 1.数据库 -> redis：补齐缺失和位置变化的商铺
+            Set<Long> typeIds = new TreeSet<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + batchSize));
+                addMissing(shops, counts, typeIds);
+                if (shops.size() < batchSize) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 2.redis -> 数据库：删除多余的商铺，类型包括店铺类型表中的和商铺引用的
+            for (ShopType type : shopTypeMapper.selectList(null)) {
+                typeIds.add(type.getId());
+            }
+            for (Long typeId : typeIds) {
+                removeStale(typeId, counts);
+            }
+            // 3.记录结果
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("time", System.currentTimeMillis());
+            result.put("checked", counts[0]);
+            result.put("added", counts[1]);
+            result.put("moved", counts[2]);
+            result.put("removed", counts[3]);
+            result.put("elapsedMillis", System.currentTimeMillis() - begin);
+            lastReconcile = result;
+            log.info("商铺GEO校对完成：{}", result);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        return lastReconcile;
+    }
+
+    /**
+     * 一批商铺按类型分组，每个类型一次GEOPOS，全部在一个pipeline中执行；缺失或位置不一致的商铺pipeline GEOADD
+     */
+    @SuppressWarnings("unchecked")
+    private void addMissing(List<Shop> shops, long[] counts, Set<Long> typeIds) {
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId, LinkedHashMap::new, Collectors.toList()));
+        if (byType.isEmpty()) {
+            return;
+        }
+        typeIds.addAll(byType.keySet());
+        List<Long> types = new ArrayList<>(byType.keySet());
+        List<Object> positions = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Long typeId : types) {
+                    String[] members = byType.get(typeId).stream().map(shop -> shop.getId().toString()).toArray(String[]::new);
+                    operations.opsForGeo().position(SHOP_GEO_KEY + typeId, members);
+                }
+                return null;
+            }
+        });
+        Map<String, Map<String, Point>> fixes = new HashMap<>();
+        for (int i = 0; i < types.size(); i++) {
+            List<Shop> typeShops = byType.get(types.get(i));
+            List<Point> points = (List<Point>) positions.get(i);
+            for (int j = 0; j < typeShops.size(); j++) {
+                Shop shop = typeShops.get(j);
+                Point point = points == null ? null : points.get(j);
+                counts[0]++;
+                if (point == null) {
+                    counts[1]++;
+                } else if (Math.abs(point.getX() - shop.getX()) > POSITION_TOLERANCE
+                        || Math.abs(point.getY() - shop.getY()) > POSITION_TOLERANCE) {
+                    counts[2]++;
+                } else {
+                    continue;
+                }
+                fixes.computeIfAbsent(SHOP_GEO_KEY + shop.getTypeId(), k -> new HashMap<>())
+                        .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+            }
+        }
+        if (fixes.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                fixes.forEach((key, members) -> operations.opsForGeo().add(key, members));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * ZSCAN分批扫描一个类型的GEO，每批一次查询数据库，数据库中不存在、类型不同或没有坐标的商铺pipeline删除
+     */
+    private void removeStale(Long typeId, long[] counts) {
+        String key = SHOP_GEO_KEY + typeId;
+        List<String> members = new ArrayList<>(batchSize);
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet()
+                .scan(key, ScanOptions.scanOptions().count(batchSize).build())) {
+            while (cursor.hasNext()) {
+                members.add(cursor.next().getValue());
+                if (members.size() >= batchSize) {
+                    removeStale(key, typeId, members, counts);
+                    members.clear();
+                }
+            }
+        }
+        if (!members.isEmpty()) {
+            removeStale(key, typeId, members, counts);
+        }
+    }
+
+    private void removeStale(String key, Long typeId, List<String> members, long[] counts) {
+        List<Long> ids = new ArrayList<>(members.size());
+        List<String> stale = new ArrayList<>();
+        for (String member : members) {
+            try {
+                ids.add(Long.valueOf(member));
+            } catch (NumberFormatException e) {
+                stale.add(member);
+            }
+        }
+        Map<Long, Shop> shops = ids.isEmpty() ? new HashMap<>() : shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y").in("id", ids))
+                .stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        for (Long id : ids) {
+            Shop shop = shops.get(id);
+            if (shop == null || !typeId.equals(shop.getTypeId()) || shop.getX() == null || shop.getY() == null) {
+                stale.add(id.toString());
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, stale.toArray());
+        counts[3] += stale.size();
+    }
+}
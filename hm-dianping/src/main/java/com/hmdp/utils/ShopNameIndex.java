@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 商铺名称的本地倒排索引
+ * <p>
+ * 启动后按id分批读取tb_shop的名称和销量构建n-gram索引，名称搜索在本地完成，不再执行 LIKE '%name%' 和 COUNT(*)。
+ * 与商铺空间索引相同，收到店铺缓存失效消息后重新读取该店铺更新索引，加载和更新在同一个线程中执行。
+ * 索引加载完成前搜索仍走数据库。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements MessageListener {
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.shop.name-index.enabled:true}")
+    private boolean enabled;
+
+    private final NGramIndex index = new NGramIndex();
+    private volatile boolean ready;
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-name-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        // 先订阅再加载，加载期间的更新排在加载之后执行
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        updater.execute(this::load);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        updater.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 按名称搜索商铺，完全匹配、前缀匹配优先，匹配程度相同时销量高的靠前
+     * @return 第offset个开始的最多limit个商铺id
+     */
+    public List<Long> search(String name, int offset, int limit) {
+        return index.search(name, offset, limit);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (!key.startsWith(CACHE_SHOP_KEY)) {
+            return;
+        }
+        long id;
+        try {
+            id = Long.parseLong(key.substring(CACHE_SHOP_KEY.length()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        updater.execute(() -> refresh(id));
+    }
+
+    private void load() {
+        long begin = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name", "sold").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + LOAD_BATCH_SIZE));
+                index.putAll(shops.stream()
+                        .filter(shop -> shop.getName() != null)
+                        .map(ShopNameIndex::toDoc)
+                        .collect(Collectors.toList()));
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            ready = true;
+            log.info("商铺名称索引构建完成，商铺数:{}, 耗时:{}ms", index.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 构建失败时搜索仍走数据库
+            log.error("商铺名称索引构建失败", e);
+        }
+    }
+
+    private void refresh(long id) {
+        try {
+            Shop shop = shopMapper.selectById(id);
+            if (shop == null || shop.getName() == null) {
+                index.remove(id);
+            } else {
+                index.put(shop.getId(), shop.getName(), shop.getSold() == null ? 0 : shop.getSold());
+            }
+        } catch (Exception e) {
+            log.error("更新商铺名称索引失败，id:{}", id, e);
+        }
+    }
+
+    private static NGramIndex.Doc toDoc(Shop shop) {
+        return new NGramIndex.Doc(shop.getId(), shop.getName(), shop.getSold() == null ? 0 : shop.getSold());
+    }
+}
@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 商铺输入联想
+ * <p>
+ * 用压缩前缀树保存商铺名称和商圈，商铺名称的权重为 销量 + 评分 * 100，同名商铺取权重最高的；
+ * 商圈的权重为其中所有商铺权重之和。启动后按id分批构建，收到店铺缓存失效消息后只更新该店铺涉及的名称和商圈，
+ * 加载和更新在同一个线程中执行。联想结果在加载完成前由数据库前缀查询代替。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ShopSuggester implements MessageListener {
+    public static final String TYPE_SHOP = "shop";
+    public static final String TYPE_AREA = "area";
+    private static final int LOAD_BATCH_SIZE = 10000;
+    private static final long SCORE_WEIGHT = 100;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.shop.suggest.enabled:true}")
+    private boolean enabled;
+    /**
+     * 每个前缀缓存的联想词数量，也是单次查询返回数量的上限
+     */
+    @Value("${hmdp.shop.suggest.top-n:10}")
+    private int topN;
+
+    private SuggestTrie trie;
+    /**
+     * 已索引的商铺，更新时据此减去旧的名称和商圈
+     */
+    private final Map<Long, Shop> indexed = new HashMap<>();
+    /**
+     * 规范化的名称/商圈到其中每个商铺的权重
+     */
+    private final Map<String, Map<Long, Long>> nameWeights = new HashMap<>();
+    private final Map<String, Map<Long, Long>> areaWeights = new HashMap<>();
+    private volatile boolean ready;
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-suggester");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        trie = new SuggestTrie(topN);
+        if (!enabled) {
+            return;
+        }
+        // 先订阅再加载，加载期间的更新排在加载之后执行
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        updater.execute(this::load);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        updater.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    public int getTopN() {
+        return topN;
+    }
+
+    /**
+     * 查询以prefix开头的联想词
+     * @return 最多min(limit, topN)个，按权重从高到低排列
+     */
+    public List<SuggestTrie.Term> suggest(String prefix, int limit) {
+        return trie.suggest(prefix, limit);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (!key.startsWith(CACHE_SHOP_KEY)) {
+            return;
+        }
+        long id;
+        try {
+            id = Long.parseLong(key.substring(CACHE_SHOP_KEY.length()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        updater.execute(() -> refresh(id));
+    }
+
+    private void load() {
+        long begin = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name", "area", "sold", "score").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + LOAD_BATCH_SIZE));
+                shops.forEach(shop -> update(shop.getId(), shop));
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            ready = true;
+            log.info("商铺联想词构建完成，商铺数:{}, 联想词数:{}, 耗时:{}ms",
+                    indexed.size(), trie.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("商铺联想词构建失败", e);
+        }
+    }
+
+    private void refresh(long id) {
+        try {
+            update(id, shopMapper.selectById(id));
+        } catch (Exception e) {
+            log.error("更新商铺联想词失败，id:{}", id, e);
+        }
+    }
+
+    /**
+     * 用商铺的最新数据替换旧数据，只重新计算涉及的名称和商圈
+     * @param shop 最新数据，null代表已删除
+     */
+    private void update(long id, Shop shop) {
+        Shop old = shop == null ? indexed.remove(id) : indexed.put(id, shop);
+        if (old != null) {
+            contribute(TYPE_SHOP, nameWeights, old.getName(), id, null);
+            contribute(TYPE_AREA, areaWeights, old.getArea(), id, null);
+        }
+        if (shop != null) {
+            long weight = weight(shop);
+            contribute(TYPE_SHOP, nameWeights, shop.getName(), id, weight);
+            contribute(TYPE_AREA, areaWeights, shop.getArea(), id, weight);
+        }
+    }
+
+    /**
+     * 修改一个商铺对名称或商圈的权重，并把聚合后的权重写入前缀树
+     * @param weight null代表移除该商铺
+     */
+    private void contribute(String type, Map<String, Map<Long, Long>> weights, String text, long id, Long weight) {
+        if (StrUtil.isBlank(text)) {
+            return;
+        }
+        String key = NGramIndex.normalize(text);
+        Map<Long, Long> shops = weights.computeIfAbsent(key, k -> new HashMap<>());
+        if (weight == null) {
+            shops.remove(id);
+        } else {
+            shops.put(id, weight);
+        }
+        if (shops.isEmpty()) {
+            weights.remove(key);
+            trie.remove(type, text);
+            return;
+        }
+        if (TYPE_AREA.equals(type)) {
+            trie.put(type, text, shops.values().stream().mapToLong(Long::longValue).sum(), null);
+            return;
+        }
+        // 同名商铺取权重最高的，展示该商铺的名称
+        Map.Entry<Long, Long> best = shops.entrySet().stream().max(Map.Entry.comparingByValue()).get();
+        Shop bestShop = indexed.get(best.getKey());
+        trie.put(type, bestShop == null ? text : bestShop.getName(), best.getValue(), best.getKey());
+    }
+
+    private static long weight(Shop shop) {
+        return (shop.getSold() == null ? 0 : shop.getSold()) + (shop.getScore() == null ? 0 : shop.getScore()) * SCORE_WEIGHT;
+    }
+}
@@ -0,0 +1,331 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 输入联想用的压缩前缀树（radix tree）
+ * <p>
+ * 单分支的路径合并为一条边，每个节点缓存子树中权重最高的topN个词，查询只需沿前缀走到对应节点后直接返回缓存。
+ * 写入加锁，节点的子节点、词和缓存都是写入时替换的数组，查询不加锁；拆分边时创建新节点，不修改已有节点的边。
+ * 权重上升或新增词时只把新词插入路径上各节点的缓存，权重下降或删除时自底向上重新合并路径上的缓存。
+ * </p>
+ */
+public class SuggestTrie {
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Term[] NO_TERMS = new Term[0];
+    private static final Comparator<Term> ORDER = Comparator
+            .comparingLong((Term term) -> term.weight).reversed()
+            .thenComparingInt(term -> term.key.length())
+            .thenComparing(term -> term.key)
+            .thenComparing(term -> term.type);
+
+    private final int topN;
+    private final Node root = new Node("");
+    private int size;
+
+    public SuggestTrie(int topN) {
+        this.topN = topN;
+    }
+
+    /**
+     * 写入或更新一个词
+     * @param type 词的类型，同一文本可以有多个类型
+     * @param text 展示的文本，按规范化后的文本匹配前缀
+     * @param weight 权重
+     * @param id 关联的数据id，可以为null
+     */
+    public synchronized void put(String type, String text, long weight, Long id) {
+        String key = NGramIndex.normalize(text);
+        if (key.isEmpty()) {
+            return;
+        }
+        Term term = new Term(type, key, text, weight, id);
+        // 1.沿路径找到或创建词所在的节点
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        int i = 0;
+        while (i < key.length()) {
+            Node child = node.child(key.charAt(i));
+            if (child == null) {
+                child = new Node(key.substring(i));
+                node.addChild(child);
+                path.add(child);
+                node = child;
+                break;
+            }
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+                // 拆分边：新节点承接公共前缀，原节点以剩余部分挂在新节点下
+                Node middle = new Node(child.label.substring(0, common));
+                Node rest = child.withLabel(child.label.substring(common));
+                middle.children = new Node[]{rest};
+                middle.top = rest.top;
+                node.replaceChild(child, middle);
+                child = middle;
+            }
+            path.add(child);
+            node = child;
+            i += common;
+        }
+        // 2.替换节点上的词
+        Term old = node.findTerm(type);
+        node.terms = replace(node.terms, old, term);
+        if (old == null) {
+            size++;
+        }
+        // 3.更新路径上的缓存
+        if (old == null || term.weight >= old.weight) {
+            for (Node n : path) {
+                n.top = insertTop(n.top, old, term);
+            }
+        } else {
+            recompute(path);
+        }
+    }
+
+    /**
+     * 删除一个词
+     */
+    public synchronized void remove(String type, String text) {
+        String key = NGramIndex.normalize(text);
+        List<Node> path = findPath(key);
+        if (path == null) {
+            return;
+        }
+        Node node = path.get(path.size() - 1);
+        Term old = node.findTerm(type);
+        if (old == null) {
+            return;
+        }
+        node.terms = replace(node.terms, old, null);
+        size--;
+        // 没有词也没有子节点的叶子从父节点移除
+        if (node.terms.length == 0 && node.children.length == 0 && path.size() > 1) {
+            path.get(path.size() - 2).removeChild(node);
+            path.remove(path.size() - 1);
+        }
+        recompute(path);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 查询以prefix开头的权重最高的词
+     * @return 最多min(limit, topN)个，按权重从高到低排列
+     */
+    public List<Term> suggest(String prefix, int limit) {
+        String key = NGramIndex.normalize(prefix);
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            Node child = node.child(key.charAt(i));
+            if (child == null) {
+                return Collections.emptyList();
+            }
+            int remaining = key.length() - i;
+            if (remaining <= child.label.length()) {
+                // 前缀结束在这条边上
+                if (!child.label.startsWith(key.substring(i))) {
+                    return Collections.emptyList();
+                }
+                node = child;
+                break;
+            }
+            if (!key.startsWith(child.label, i)) {
+                return Collections.emptyList();
+            }
+            node = child;
+            i += child.label.length();
+        }
+        Term[] top = node.top;
+        return Arrays.asList(top).subList(0, Math.min(Math.min(limit, topN), top.length));
+    }
+
+    private List<Node> findPath(String key) {
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        int i = 0;
+        while (i < key.length()) {
+            Node child = node.child(key.charAt(i));
+            if (child == null || !key.startsWith(child.label, i)) {
+                return null;
+            }
+            path.add(child);
+            node = child;
+            i += child.label.length();
+        }
+        return path;
+    }
+
+    /**
+     * 自底向上重新合并路径上节点的缓存：节点自己的词加上各子节点的缓存
+     */
+    private void recompute(List<Node> path) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node node = path.get(i);
+            List<Term> candidates = new ArrayList<>(Arrays.asList(node.terms));
+            for (Node child : node.children) {
+                candidates.addAll(Arrays.asList(child.top));
+            }
+            candidates.sort(ORDER);
+            node.top = candidates.subList(0, Math.min(topN, candidates.size())).toArray(NO_TERMS);
+        }
+    }
+
+    /**
+     * 把新词插入缓存，同时去掉同一个词的旧值
+     */
+    private Term[] insertTop(Term[] top, Term old, Term term) {
+        List<Term> list = new ArrayList<>(top.length + 1);
+        for (Term t : top) {
+            if (old == null || !t.sameAs(old)) {
+                list.add(t);
+            }
+        }
+        if (list.size() == topN && ORDER.compare(term, list.get(topN - 1)) > 0) {
+            return list.size() == top.length ? top : list.toArray(NO_TERMS);
+        }
+        int index = Collections.binarySearch(list, term, ORDER);
+        list.add(index < 0 ? -index - 1 : index, term);
+        if (list.size() > topN) {
+            list.remove(list.size() - 1);
+        }
+        return list.toArray(NO_TERMS);
+    }
+
+    private static Term[] replace(Term[] terms, Term old, Term term) {
+        List<Term> list = new ArrayList<>(terms.length + 1);
+        for (Term t : terms) {
+            if (old == null || t != old) {
+                list.add(t);
+            }
+        }
+        if (term != null) {
+            list.add(term);
+        }
+        return list.toArray(NO_TERMS);
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static class Node {
+        private final String label;
+        /**
+         * 按边的首字排序
+         */
+        private volatile Node[] children = NO_CHILDREN;
+        private volatile Term[] terms = NO_TERMS;
+        private volatile Term[] top = NO_TERMS;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private Node withLabel(String newLabel) {
+            Node node = new Node(newLabel);
+            node.children = children;
+            node.terms = terms;
+            node.top = top;
+            return node;
+        }
+
+        private Node child(char c) {
+            Node[] nodes = children;
+            int low = 0;
+            int high = nodes.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char m = nodes[mid].label.charAt(0);
+                if (m < c) {
+                    low = mid + 1;
+                } else if (m > c) {
+                    high = mid - 1;
+                } else {
+                    return nodes[mid];
+                }
+            }
+            return null;
+        }
+
+        private void addChild(Node child) {
+            Node[] nodes = Arrays.copyOf(children, children.length + 1);
+            nodes[nodes.length - 1] = child;
+            Arrays.sort(nodes, Comparator.comparingInt(n -> n.label.charAt(0)));
+            children = nodes;
+        }
+
+        private void replaceChild(Node old, Node child) {
+            Node[] nodes = children.clone();
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i] == old) {
+                    nodes[i] = child;
+                }
+            }
+            children = nodes;
+        }
+
+        private void removeChild(Node child) {
+            children = Arrays.stream(children).filter(n -> n != child).toArray(Node[]::new);
+        }
+
+        private Term findTerm(String type) {
+            for (Term term : terms) {
+                if (term.type.equals(type)) {
+                    return term;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class Term {
+        private final String type;
+        private final String key;
+        private final String text;
+        private final long weight;
+        private final Long id;
+
+        private Term(String type, String key, String text, long weight, Long id) {
+            this.type = type;
+            this.key = key;
+            this.text = text;
+            this.weight = weight;
+            this.id = id;
+        }
+
+        private boolean sameAs(Term other) {
+            return type.equals(other.type) && key.equals(other.key);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+}
@@ -5,16 +5,24 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.库存是否已由本地库存闸门预占，'1'表示已预占，无需再扣减
+local leased = ARGV[4]
 
 -- 2.数据key
 -- 2.1.库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2.订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.3.分桶数key
+local shardsKey = 'seckill:shards:' .. voucherId
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
+-- 3.0.库存已分桶，返回3，由调用方改用分桶脚本
+if(redis.call('exists', shardsKey) == 1) then
+    return 3
+end
+-- 3.1.判断库存是否充足 get stockKey（已预占则跳过）
+if(leased ~= '1' and tonumber(redis.call('get', stockKey)) <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
@@ -23,8 +31,10 @@ if(redis.call('sismember', orderKey, userId) == 1) then
     -- 3.3.存在，说明是重复下单，返回2
     return 2
 end
--- 3.4.扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
+-- 3.4.扣库存 incrby stockKey -1（已预占则跳过）
+if(leased ~= '1') then
+    redis.call('incrby', stockKey, -1)
+end
 -- 3.5.下单（保存用户）sadd orderKey userId
 redis.call('sadd', orderKey, userId)
 -- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
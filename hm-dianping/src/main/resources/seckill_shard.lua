@@ -0,0 +1,30 @@
+-- 分桶库存的秒杀脚本，库存key与订单key使用相同的hash tag，位于同一slot
+-- 1.参数列表
+-- 1.1.库存桶key
+local stockKey = KEYS[1]
+-- 1.2.用户主桶的订单key
+local orderKey = KEYS[2]
+-- 1.3.用户id
+local userId = ARGV[1]
+-- 1.4.库存是否已由本地库存闸门预占，'1'表示已预占，无需再扣减
+local leased = ARGV[2]
+
+-- 2.脚本业务
+-- 2.1.判断用户是否下单 SISMEMBER orderKey userId
+if(redis.call('sismember', orderKey, userId) == 1) then
+    -- 2.2.存在，说明是重复下单，返回2
+    return 2
+end
+-- 2.3.判断本桶库存是否充足 get stockKey（已预占则跳过）
+if(leased ~= '1') then
+    local stock = tonumber(redis.call('get', stockKey))
+    if(stock == nil or stock <= 0) then
+        -- 2.4.本桶库存不足，返回1，由调用方继续尝试其它桶；此时不占位，并发的重试不会被误判为重复下单
+        return 1
+    end
+    -- 2.5.扣库存 incrby stockKey -1
+    redis.call('incrby', stockKey, -1)
+end
+-- 2.6.下单（保存用户）sadd orderKey userId
+redis.call('sadd', orderKey, userId)
+return 0
@@ -0,0 +1,5 @@
+-- 店铺类型变更后递增版本号并删除列表，两步原子执行
+-- KEYS[1] 列表key，KEYS[2] 版本号key
+local version = redis.call('incr', KEYS[2])
+redis.call('del', KEYS[1])
+return version
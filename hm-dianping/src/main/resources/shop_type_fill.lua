@@ -0,0 +1,8 @@
+-- 写入店铺类型列表，只有版本号仍是查询数据库前读到的版本才写入
+-- KEYS[1] 列表key，KEYS[2] 版本号key，ARGV[1] 版本号，ARGV[2] 带版本号的列表，ARGV[3] 过期时间(s)
+if((redis.call('get', KEYS[2]) or '0') ~= ARGV[1]) then
+    -- 加载期间类型已变更，数据可能是旧的
+    return 0
+end
+redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3])
+return 1
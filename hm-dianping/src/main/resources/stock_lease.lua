@@ -0,0 +1,16 @@
+-- 1.参数列表
+-- 1.1.库存key
+local stockKey = KEYS[1]
+-- 1.2.本次最多预占的库存数
+local leaseSize = tonumber(ARGV[1])
+
+-- 2.判断库存是否充足 get stockKey
+local stock = tonumber(redis.call('get', stockKey))
+if(stock == nil or stock <= 0) then
+    -- 2.1.库存不足，返回0
+    return 0
+end
+-- 3.按剩余库存与预占数取较小值，扣减库存 incrby stockKey -n
+local n = math.min(stock, leaseSize)
+redis.call('incrby', stockKey, -n)
+return n
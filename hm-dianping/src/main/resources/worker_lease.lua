@@ -0,0 +1,11 @@
+-- 续期workerId租约
+-- 1.租约仍属于当前节点，刷新过期时间
+if(redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+-- 2.租约已过期，尝试重新占用
+if(redis.call('set', KEYS[1], ARGV[1], 'NX', 'EX', ARGV[2])) then
+    return 1
+end
+-- 3.已被其它节点占用
+return 0
@@ -3,6 +3,8 @@ package com.hmdp;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockGate;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
@@ -17,8 +19,10 @@ import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
 @SpringBootTest
@@ -27,6 +31,8 @@ public class HmDianPingApplicationTests {
     private RedisIdWorker redisIdWorker;
     @Resource
     private IShopService shopService;
+    @Resource
+    private SeckillStockGate seckillStockGate;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
@@ -53,6 +59,33 @@ public class HmDianPingApplicationTests {
         System.out.println("time = " + (end - begin));
     }
 
+    @Test
+    void testSeckillStockGate() throws InterruptedException {
+        Long voucherId = 10086L;
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, "1000");
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(300);
+
+        // 30000次请求抢1000件库存，售罄后的请求在本地被拒绝，不再访问redis
+        Runnable task = () -> {
+            for (int i = 0; i < 100; i++) {
+                if (seckillStockGate.tryAcquire(voucherId)) {
+                    acquired.incrementAndGet();
+                }
+            }
+            latch.countDown();
+        };
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < 300; i++) {
+            es.submit(task);
+        }
+        latch.await();
+        long end = System.currentTimeMillis();
+        System.out.println("acquired = " + acquired.get() + ", time = " + (end - begin));
+        Assertions.assertEquals(1000, acquired.get());
+        stringRedisTemplate.delete(SECKILL_STOCK_KEY + voucherId);
+    }
+
     @Test
     void loadShopData(){
         //1.查询店铺信息
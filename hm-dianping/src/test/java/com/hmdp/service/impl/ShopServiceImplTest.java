@@ -0,0 +1,250 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.codec.Base64;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.NearbyShopQuery;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.GeoGrid;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.SystemConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.GeoOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * 附近商铺查询：参数校验，以及本地索引和redis GEO两种查询方式结果一致
+ */
+public class ShopServiceImplTest {
+    private final ShopServiceImpl shopService = new ShopServiceImpl();
+
+    @Test
+    void testRejectInvalidRadius() {
+        for (double radius : new double[]{0, -1, Double.NaN, Double.NEGATIVE_INFINITY}) {
+            NearbyShopQuery query = query();
+            query.setRadius(radius);
+            assertFail("搜索半径必须大于0", shopService.queryNearbyShops(query));
+        }
+    }
+
+    @Test
+    void testRejectInvertedPriceRange() {
+        NearbyShopQuery query = query();
+        query.setMinPrice(100L);
+        query.setMaxPrice(50L);
+        assertFail("最低价格不能高于最高价格", shopService.queryNearbyShops(query));
+    }
+
+    @Test
+    void testRejectInvalidCoordinate() {
+        for (double[] xy : new double[][]{{181, 30}, {120, 86}, {Double.NaN, 30}, {120, Double.POSITIVE_INFINITY}}) {
+            NearbyShopQuery query = query();
+            query.setX(xy[0]);
+            query.setY(xy[1]);
+            assertFail("坐标超出范围", shopService.queryNearbyShops(query));
+        }
+    }
+
+    @Test
+    void testRejectInvalidCursor() {
+        ShopServiceImpl service = new ShopServiceImpl();
+        ReflectionTestUtils.setField(service, "geoMaxResults", 1000);
+        ReflectionTestUtils.setField(service, "geoCoordinateScale", 3);
+        // 校验失败时不访问redis（未注入，访问会抛出异常）
+        for (String cursor : new String[]{"120000,30000,-5", "120000,30000,1001", "120000,30000,2147483647",
+                "999999999,30000,0", "120000,-90000,0", "120000,30000", "a,b,c"}) {
+            assertFail("游标无效", service.queryShopByTypeScroll(1, 120.0, 30.0, Base64.encodeUrlSafe(cursor)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testScrollPageReadFromCache() {
+        ShopServiceImpl service = new ShopServiceImpl();
+        ZSetOperations<String, String> zSetOperations = Mockito.mock(ZSetOperations.class);
+        Set<ZSetOperations.TypedTuple<String>> page = new LinkedHashSet<>();
+        for (long id : new long[]{3, 1, 2}) {
+            page.add(new DefaultTypedTuple<>(String.valueOf(id), (double) id));
+        }
+        Mockito.when(zSetOperations.rangeWithScores(anyString(), anyLong(), anyLong())).thenReturn(page);
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        CacheClient cacheClient = Mockito.mock(CacheClient.class);
+        Mockito.when(cacheClient.queryBatchWithEarlyRefresh(anyString(), anyCollection(), eq(Shop.class), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    Map<Long, Shop> result = new LinkedHashMap<>();
+                    for (Object id : invocation.<Collection<?>>getArgument(1)) {
+                        // 商铺2已删除
+                        if (!Long.valueOf(2).equals(id)) {
+                            Shop shop = new Shop();
+                            shop.setId((Long) id);
+                            shop.setX(120.0);
+                            shop.setY(30.0 + (Long) id * 0.001);
+                            result.put((Long) id, shop);
+                        }
+                    }
+                    return result;
+                });
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(service, "geoMaxResults", 1000);
+        ReflectionTestUtils.setField(service, "geoCoordinateScale", 3);
+        // 没有注入数据库，按结果顺序返回缓存中的商铺
+        Result result = service.queryShopByTypeScroll(1, 120.0, 30.0, Base64.encodeUrlSafe("120000,30000,0"));
+        List<Shop> shops = ((CursorResult) result.getData()).getList().stream()
+                .map(Shop.class::cast).collect(Collectors.toList());
+        Assertions.assertEquals(Arrays.asList(3L, 1L), shops.stream().map(Shop::getId).collect(Collectors.toList()));
+        Assertions.assertEquals(GeoGrid.distance(120, 30, 120, 30.003), shops.get(0).getDistance(), 1e-6);
+    }
+
+    @Test
+    void testLocalIndexAndRedisAgree() {
+        Random random = new Random(1);
+        Map<Long, Shop> shops = new LinkedHashMap<>();
+        for (long id = 1; id <= 400; id++) {
+            Shop shop = new Shop();
+            shop.setId(id);
+            shop.setTypeId(1L);
+            shop.setX(120 + random.nextDouble() * 0.1);
+            shop.setY(30 + random.nextDouble() * 0.1);
+            shop.setScore(random.nextInt(50));
+            shop.setSold(random.nextInt(10000));
+            shop.setAvgPrice((long) random.nextInt(500));
+            shops.put(id, shop);
+        }
+        AtomicInteger geoSearches = new AtomicInteger();
+        ShopServiceImpl redisService = nearbyService(shops, false, geoSearches);
+        ShopServiceImpl localService = nearbyService(shops, true, geoSearches);
+        for (String sortBy : new String[]{null, "score", "sold", "price"}) {
+            for (Integer minScore : new Integer[]{null, 30, 48}) {
+                for (int current = 1; current <= 3; current++) {
+                    NearbyShopQuery query = new NearbyShopQuery();
+                    query.setTypeId(1);
+                    query.setX(120.05);
+                    query.setY(30.05);
+                    query.setRadius(5000.0);
+                    query.setSortBy(sortBy);
+                    query.setMinScore(minScore);
+                    query.setCurrent(current);
+                    List<Long> expected = ids(localService.queryNearbyShops(query));
+                    Assertions.assertEquals(expected, ids(redisService.queryNearbyShops(query)),
+                            sortBy + "," + minScore + "," + current);
+                }
+            }
+        }
+        // 满足条件的商铺很少时，逐步扩大范围直到半径内没有更多商铺；候选上限大于半径内商铺数
+        ReflectionTestUtils.setField(redisService, "geoMaxCandidates", 1000);
+        ReflectionTestUtils.setField(localService, "geoMaxCandidates", 1000);
+        geoSearches.set(0);
+        NearbyShopQuery rare = new NearbyShopQuery();
+        rare.setTypeId(1);
+        rare.setX(120.05);
+        rare.setY(30.05);
+        rare.setRadius(20000.0);
+        rare.setMinScore(49);
+        long expected = shops.values().stream().filter(shop -> shop.getScore() >= 49).count();
+        List<Long> found = ids(redisService.queryNearbyShops(rare));
+        Assertions.assertEquals(Math.min(expected, SystemConstants.DEFAULT_PAGE_SIZE), found.size());
+        // 第一次只取64个候选，之后翻倍直到凑满一页
+        Assertions.assertTrue(geoSearches.get() > 1);
+        Assertions.assertEquals(ids(localService.queryNearbyShops(rare)), found);
+    }
+
+    /**
+     * 用内存中的商铺模拟redis GEO、缓存和本地空间索引，候选上限设为100，小于半径内的商铺数
+     */
+    @SuppressWarnings("unchecked")
+    private static ShopServiceImpl nearbyService(Map<Long, Shop> shops, boolean localIndex, AtomicInteger geoSearches) {
+        ShopServiceImpl service = new ShopServiceImpl();
+        GeoOperations<String, String> geoOperations = Mockito.mock(GeoOperations.class);
+        Mockito.when(geoOperations.search(anyString(), any(GeoReference.class), any(Distance.class),
+                any(RedisGeoCommands.GeoSearchCommandArgs.class))).thenAnswer(invocation -> {
+            geoSearches.incrementAndGet();
+            GeoReference.GeoCoordinateReference<String> center = invocation.getArgument(1);
+            double radius = invocation.<Distance>getArgument(2).getValue();
+            long limit = invocation.<RedisGeoCommands.GeoSearchCommandArgs>getArgument(3).getLimit();
+            List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = shops.values().stream()
+                    .map(shop -> new GeoResult<>(
+                            new RedisGeoCommands.GeoLocation<>(String.valueOf(shop.getId()), new Point(shop.getX(), shop.getY())),
+                            new Distance(GeoGrid.distance(center.getLongitude(), center.getLatitude(), shop.getX(), shop.getY()))))
+                    .filter(res -> res.getDistance().getValue() <= radius)
+                    .sorted(Comparator.comparingDouble(res -> res.getDistance().getValue()))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+            return new GeoResults<>(content);
+        });
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(stringRedisTemplate.opsForGeo()).thenReturn(geoOperations);
+        CacheClient cacheClient = Mockito.mock(CacheClient.class);
+        Mockito.when(cacheClient.queryBatchWithEarlyRefresh(anyString(), anyCollection(), eq(Shop.class), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    Map<Long, Shop> result = new LinkedHashMap<>();
+                    for (Object id : invocation.<Collection<?>>getArgument(1)) {
+                        result.put((Long) id, shops.get(id));
+                    }
+                    return result;
+                });
+        ShopGeoIndex shopGeoIndex = new ShopGeoIndex();
+        ReflectionTestUtils.setField(shopGeoIndex, "enabled", localIndex);
+        ReflectionTestUtils.setField(shopGeoIndex, "cellDegrees", 0.01);
+        shops.values().forEach(shop -> ReflectionTestUtils.invokeMethod(shopGeoIndex, "put", shop));
+        ReflectionTestUtils.setField(shopGeoIndex, "ready", true);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(service, "shopGeoIndex", shopGeoIndex);
+        ReflectionTestUtils.setField(service, "geoRadius", 5000.0);
+        ReflectionTestUtils.setField(service, "geoMaxRadius", 20000.0);
+        ReflectionTestUtils.setField(service, "geoMaxCandidates", 100);
+        return service;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> ids(Result result) {
+        Assertions.assertTrue(result.getSuccess(), result.getErrorMsg());
+        return ((List<Shop>) result.getData()).stream().map(Shop::getId).collect(Collectors.toList());
+    }
+
+    private static NearbyShopQuery query() {
+        NearbyShopQuery query = new NearbyShopQuery();
+        query.setTypeId(1);
+        query.setX(120.0);
+        query.setY(30.0);
+        return query;
+    }
+
+    private static void assertFail(String errorMsg, Result result) {
+        Assertions.assertFalse(result.getSuccess());
+        Assertions.assertEquals(errorMsg, result.getErrorMsg());
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * 加载期间类型发生变更时，旧列表不能写回redis，也不能被新版本的快照使用
+ */
+public class ShopTypeServiceImplTest {
+    /**
+     * 模拟redis中的字符串
+     */
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private final List<ShopType> table = Collections.synchronizedList(new ArrayList<>());
+    private ShopTypeServiceImpl service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        table.add(type(1L, "美食"));
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class, invocation -> {
+            if ("get".equals(invocation.getMethod().getName())) {
+                return redis.get(invocation.<String>getArgument(0));
+            }
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        });
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "opsForValue":
+                    return ops;
+                case "execute":
+                    return execute(invocation.getArgument(0), invocation.getArgument(1), invocation.getArguments());
+                default:
+                    return Mockito.RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+        service = new ShopTypeServiceImpl();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper().findAndRegisterModules());
+    }
+
+    @Test
+    void testUpdateDuringLoadNotWrittenBack() {
+        AtomicBoolean raced = new AtomicBoolean();
+        ShopTypeMapper mapper = Mockito.mock(ShopTypeMapper.class);
+        Mockito.when(mapper.selectList(any())).thenAnswer(invocation -> {
+            List<ShopType> rows = new ArrayList<>(table);
+            if (raced.compareAndSet(false, true)) {
+                // 读出旧数据后，类型变更提交
+                table.set(0, type(1L, "美食2"));
+                bump();
+            }
+            return rows;
+        });
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        // 加载到的是旧数据，快照标记为加载前的版本
+        Assertions.assertEquals("美食", names().get(0));
+        Assertions.assertNull(redis.get(CACHE_SHOP_TYPE_KEY));
+        // 检查到新版本后重新加载
+        ReflectionTestUtils.invokeMethod(service, "checkVersion");
+        Assertions.assertEquals("美食2", names().get(0));
+        Assertions.assertTrue(redis.get(CACHE_SHOP_TYPE_KEY).contains("美食2"));
+    }
+
+    @Test
+    void testIgnoreListOfOtherVersion() {
+        ShopTypeMapper mapper = Mockito.mock(ShopTypeMapper.class);
+        Mockito.when(mapper.selectList(any())).thenAnswer(invocation -> new ArrayList<>(table));
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        redis.put(CACHE_SHOP_TYPE_VERSION_KEY, "3");
+        // 版本号不一致的列表和旧格式的列表都重新查询数据库
+        redis.put(CACHE_SHOP_TYPE_KEY, "{\"version\":\"2\",\"types\":[{\"id\":1,\"name\":\"旧\"}]}");
+        Assertions.assertEquals("美食", names().get(0));
+        redis.put(CACHE_SHOP_TYPE_KEY, "[{\"id\":1,\"name\":\"旧\"}]");
+        bump();
+        redis.put(CACHE_SHOP_TYPE_KEY, "[{\"id\":1,\"name\":\"旧\"}]");
+        ReflectionTestUtils.invokeMethod(service, "checkVersion");
+        Assertions.assertEquals("美食", names().get(0));
+        // 同一版本的列表直接使用
+        table.set(0, type(1L, "数据库"));
+        bump();
+        redis.put(CACHE_SHOP_TYPE_KEY, "{\"version\":\"5\",\"types\":[{\"id\":1,\"name\":\"缓存\"}]}");
+        ReflectionTestUtils.invokeMethod(service, "checkVersion");
+        Assertions.assertEquals("缓存", names().get(0));
+        Mockito.verify(mapper, Mockito.times(2)).selectList(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> names() {
+        List<ShopType> types = (List<ShopType>) service.queryList().getData();
+        List<String> names = new ArrayList<>();
+        types.forEach(type -> names.add(type.getName()));
+        return names;
+    }
+
+    /**
+     * 按脚本名模拟 shop_type_fill.lua 和 shop_type_bump.lua
+     */
+    private Object execute(RedisScript<?> script, List<String> keys, Object[] arguments) {
+        if (script == ReflectionTestUtils.getField(ShopTypeServiceImpl.class, "BUMP_SCRIPT")) {
+            bump();
+            return 1L;
+        }
+        // 参数依次为版本号、带版本号的列表、过期时间
+        String version = redis.getOrDefault(keys.get(1), "0");
+        if (!version.equals(arguments[2])) {
+            return 0L;
+        }
+        redis.put(keys.get(0), (String) arguments[3]);
+        return 1L;
+    }
+
+    private synchronized void bump() {
+        redis.merge(CACHE_SHOP_TYPE_VERSION_KEY, "1", (a, b) -> String.valueOf(Long.parseLong(a) + 1));
+        redis.remove(CACHE_SHOP_TYPE_KEY);
+    }
+
+    private static ShopType type(Long id, String name) {
+        ShopType type = new ShopType();
+        type.setId(id);
+        type.setName(name);
+        type.setSort(1);
+        return type;
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class AdminInterceptorTest {
+
+    @Test
+    void testRequireToken() throws Exception {
+        AdminInterceptor interceptor = new AdminInterceptor("secret");
+        Assertions.assertTrue(check(interceptor, "secret"));
+        Assertions.assertFalse(check(interceptor, "secret1"));
+        Assertions.assertFalse(check(interceptor, ""));
+        Assertions.assertFalse(check(interceptor, null));
+    }
+
+    @Test
+    void testRejectAllWithoutToken() throws Exception {
+        // 未配置令牌时运维接口不可用
+        for (String configured : new String[]{null, "", "  "}) {
+            AdminInterceptor interceptor = new AdminInterceptor(configured);
+            Assertions.assertFalse(check(interceptor, configured));
+            Assertions.assertFalse(check(interceptor, null));
+        }
+    }
+
+    private static boolean check(AdminInterceptor interceptor, String token) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/cache/geo/reconcile");
+        if (token != null) {
+            request.addHeader(AdminInterceptor.ADMIN_TOKEN_HEADER, token);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean passed = interceptor.preHandle(request, response, null);
+        Assertions.assertEquals(passed ? 200 : 403, response.getStatus());
+        return passed;
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * 读取redis期间收到失效消息时，读到的旧数据不能写入本地缓存
+ */
+public class CacheClientTest {
+    private static final String KEY = CACHE_SHOP_KEY + 1;
+
+    private final CacheCodec codec = new BinaryCacheCodec();
+    /**
+     * redis中当前的值
+     */
+    private final AtomicReference<byte[]> stored = new AtomicReference<>();
+    /**
+     * 下一次GET返回后、写入本地缓存前执行
+     */
+    private final AtomicReference<Runnable> afterGet = new AtomicReference<>();
+    private final AtomicInteger gets = new AtomicInteger();
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(stringRedisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation -> {
+            gets.incrementAndGet();
+            byte[] bytes = stored.get();
+            Runnable action = afterGet.getAndSet(null);
+            if (action != null) {
+                action.run();
+            }
+            return bytes;
+        });
+        CachePenetrationGuard cachePenetrationGuard = Mockito.mock(CachePenetrationGuard.class);
+        Mockito.when(cachePenetrationGuard.mightContain(anyString(), any())).thenReturn(true);
+        cacheClient = new CacheClient(stringRedisTemplate);
+        ReflectionTestUtils.setField(cacheClient, "redisMessageListenerContainer", Mockito.mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(cacheClient, "cacheRebuildExecutor", Mockito.mock(CacheRebuildExecutor.class));
+        ReflectionTestUtils.setField(cacheClient, "cachePenetrationGuard", cachePenetrationGuard);
+        ReflectionTestUtils.setField(cacheClient, "hotKeyDetector", Mockito.mock(HotKeyDetector.class));
+        ReflectionTestUtils.setField(cacheClient, "responseBodyCache", Mockito.mock(ResponseBodyCache.class));
+        ReflectionTestUtils.setField(cacheClient, "localEnabled", true);
+        ReflectionTestUtils.setField(cacheClient, "localMaximumSize", 100L);
+        ReflectionTestUtils.setField(cacheClient, "localExpireSeconds", 60L);
+        ReflectionTestUtils.setField(cacheClient, "codecName", "binary");
+        ReflectionTestUtils.setField(cacheClient, "earlyRefreshBeta", 0.0);
+        ReflectionTestUtils.invokeMethod(cacheClient, "init");
+    }
+
+    @Test
+    void testPassThroughSkipsLocalFillAfterInvalidation() {
+        stored.set(codec.encode(shop("旧")));
+        // GET读到旧值后，其他节点更新并删除了缓存
+        afterGet.set(this::update);
+        Assertions.assertEquals("旧", query().getName());
+        // 本地缓存没有旧值，重新读取redis
+        Assertions.assertEquals("新", query().getName());
+        Assertions.assertEquals(2, gets.get());
+        // 没有失效时正常写入本地缓存
+        Assertions.assertEquals("新", query().getName());
+        Assertions.assertEquals(2, gets.get());
+    }
+
+    @Test
+    void testEarlyRefreshSkipsLocalFillAfterInvalidation() {
+        stored.set(codec.encodeWithExpire(shop("旧"), LocalDateTime.now().plusMinutes(30)));
+        afterGet.set(() -> {
+            stored.set(codec.encodeWithExpire(shop("新"), LocalDateTime.now().plusMinutes(30)));
+            invalidate();
+        });
+        Assertions.assertEquals("旧", queryEarlyRefresh().getName());
+        Assertions.assertEquals("新", queryEarlyRefresh().getName());
+        Assertions.assertEquals("新", queryEarlyRefresh().getName());
+        Assertions.assertEquals(2, gets.get());
+    }
+
+    @Test
+    void testInvalidationOfOtherKeyKeepsFill() {
+        stored.set(codec.encode(shop("旧")));
+        // 其他key的失效不影响写入（分段不同）
+        afterGet.set(() -> cacheClient.onMessage(message(CACHE_SHOP_KEY + otherStripeId()), null));
+        query();
+        query();
+        Assertions.assertEquals(1, gets.get());
+    }
+
+    private Shop query() {
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, 1L, Shop.class, id -> null, 30L, TimeUnit.MINUTES);
+    }
+
+    private Shop queryEarlyRefresh() {
+        return cacheClient.queryWithEarlyRefresh(CACHE_SHOP_KEY, 1L, Shop.class, id -> null, 30L, TimeUnit.MINUTES);
+    }
+
+    private void update() {
+        stored.set(codec.encode(shop("新")));
+        invalidate();
+    }
+
+    private void invalidate() {
+        cacheClient.onMessage(message(KEY), null);
+    }
+
+    private static DefaultMessage message(String key) {
+        return new DefaultMessage(CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 找一个与KEY不在同一分段的id
+     */
+    private static long otherStripeId() {
+        for (long id = 2; ; id++) {
+            if (stripe(CACHE_SHOP_KEY + id) != stripe(KEY)) {
+                return id;
+            }
+        }
+    }
+
+    private static int stripe(String key) {
+        return ReflectionTestUtils.invokeMethod(CacheClient.class, "stripe", key);
+    }
+
+    private static Shop shop(String name) {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName(name);
+        return shop;
+    }
+}
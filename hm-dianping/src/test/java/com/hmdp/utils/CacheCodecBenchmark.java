@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编解码基准测试：比较JSON与二进制格式的编解码耗时和数据大小
+ * <p>
+ * 运行：mvn test-compile exec:java -Dexec.mainClass=com.hmdp.utils.CacheCodecBenchmark -Dexec.classpathScope=test，
+ * 或在IDE中直接运行main方法
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+    @Param({"json", "binary"})
+    private String codecName;
+
+    private CacheCodec codec;
+    private Shop shop;
+    private List<ShopType> shopTypes;
+    private LocalDateTime expireTime;
+    private byte[] shopBytes;
+    private byte[] shopTypesBytes;
+    private byte[] redisDataBytes;
+
+    @Setup
+    public void setup() {
+        codec = "binary".equals(codecName) ? new BinaryCacheCodec() : new JsonCacheCodec();
+        shop = newShop();
+        shopTypes = newShopTypes();
+        expireTime = LocalDateTime.now().plusSeconds(20);
+        shopBytes = codec.encode(shop);
+        shopTypesBytes = codec.encode(shopTypes);
+        redisDataBytes = codec.encodeWithExpire(shop, expireTime);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return codec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop() {
+        return codec.decode(shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeShopTypes() {
+        return codec.encode(shopTypes);
+    }
+
+    @Benchmark
+    public List<ShopType> decodeShopTypes() {
+        return codec.decodeList(shopTypesBytes, ShopType.class);
+    }
+
+    @Benchmark
+    public byte[] encodeRedisData() {
+        return codec.encodeWithExpire(shop, expireTime);
+    }
+
+    @Benchmark
+    public RedisData decodeRedisData() {
+        return codec.decodeWithExpire(redisDataBytes, Shop.class);
+    }
+
+    private static Shop newShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.now());
+        shop.setUpdateTime(LocalDateTime.now());
+        return shop;
+    }
+
+    private static List<ShopType> newShopTypes() {
+        String[] names = {"美食", "KTV", "丽人·美发", "健身运动", "按摩·足疗", "美容SPA", "亲子游乐", "酒吧", "轰趴馆", "美睫·美甲"};
+        List<ShopType> types = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            ShopType type = new ShopType();
+            type.setId((long) i + 1);
+            type.setName(names[i]);
+            type.setIcon("/types/" + (i + 1) + ".png");
+            type.setSort(i + 1);
+            type.setCreateTime(LocalDateTime.now());
+            type.setUpdateTime(LocalDateTime.now());
+            types.add(type);
+        }
+        return types;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        // 先输出两种格式的数据大小
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+            System.out.printf("%s: shop=%dB, shopTypes=%dB, redisData=%dB%n",
+                    codec.getClass().getSimpleName(),
+                    codec.encode(newShop()).length,
+                    codec.encode(newShopTypes()).length,
+                    codec.encodeWithExpire(newShop(), LocalDateTime.now()).length);
+        }
+        new Runner(new OptionsBuilder().include(CacheCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * 多节点场景：一个节点新增的id在其他节点上不能被判定为不存在
+ */
+public class CachePenetrationGuardTest {
+    /**
+     * tb_shop中的id，所有节点共用
+     */
+    private final NavigableSet<Long> shopIds = new ConcurrentSkipListSet<>();
+    private final List<CachePenetrationGuard> nodes = new ArrayList<>();
+    /**
+     * 为false时模拟广播丢失
+     */
+    private volatile boolean deliver = true;
+
+    @BeforeEach
+    void setUp() {
+        for (long id = 1; id <= 100; id++) {
+            shopIds.add(id);
+        }
+        nodes.add(newNode());
+        nodes.add(newNode());
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(node -> ReflectionTestUtils.invokeMethod(node, "destroy"));
+    }
+
+    @Test
+    void testInsertBroadcastToOtherNodes() {
+        CachePenetrationGuard a = nodes.get(0);
+        CachePenetrationGuard b = nodes.get(1);
+        Assertions.assertTrue(b.mightContain(CACHE_SHOP_KEY, 50L));
+        Assertions.assertFalse(b.mightContain(CACHE_SHOP_KEY, 101L));
+        // 节点a新增店铺
+        shopIds.add(101L);
+        a.put(CACHE_SHOP_KEY, 101L);
+        Assertions.assertTrue(a.mightContain(CACHE_SHOP_KEY, 101L));
+        Assertions.assertTrue(b.mightContain(CACHE_SHOP_KEY, 101L));
+    }
+
+    @Test
+    void testLostBroadcastCaughtUp() {
+        CachePenetrationGuard a = nodes.get(0);
+        CachePenetrationGuard b = nodes.get(1);
+        deliver = false;
+        shopIds.add(101L);
+        shopIds.add(102L);
+        a.put(CACHE_SHOP_KEY, 101L);
+        Assertions.assertFalse(b.mightContain(CACHE_SHOP_KEY, 101L));
+        // 定时加载补上丢失的广播，以及没有经过put写入的数据
+        ReflectionTestUtils.invokeMethod(b, "catchUp");
+        Assertions.assertTrue(b.mightContain(CACHE_SHOP_KEY, 101L));
+        Assertions.assertTrue(b.mightContain(CACHE_SHOP_KEY, 102L));
+        Assertions.assertEquals(102L, ((Map<?, ?>) b.stats().get(CACHE_SHOP_KEY)).get("maxLoadedId"));
+    }
+
+    @Test
+    void testInvalidMessageIgnored() {
+        CachePenetrationGuard b = nodes.get(1);
+        b.onMessage(new DefaultMessage(CACHE_BLOOM_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                (CACHE_SHOP_KEY + "abc").getBytes(StandardCharsets.UTF_8)), null);
+        Assertions.assertTrue(b.mightContain(CACHE_SHOP_KEY, 1L));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CachePenetrationGuard newNode() {
+        CachePenetrationGuard guard = new CachePenetrationGuard();
+        ShopMapper shopMapper = Mockito.mock(ShopMapper.class);
+        Mockito.when(shopMapper.selectCount(any())).thenAnswer(invocation -> shopIds.size());
+        Mockito.when(shopMapper.selectObjs(any())).thenAnswer(invocation -> {
+            // 模拟 id > ? order by id limit ?
+            QueryWrapper<?> wrapper = invocation.getArgument(0);
+            // 参数在生成sql片段时才写入
+            wrapper.getSqlSegment();
+            long after = ((Number) wrapper.getParamNameValuePairs().values().iterator().next()).longValue();
+            return shopIds.tailSet(after, false).stream().limit(10000).collect(Collectors.toList());
+        });
+        BlogMapper blogMapper = Mockito.mock(BlogMapper.class);
+        Mockito.when(blogMapper.selectCount(any())).thenReturn(0);
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        Mockito.doAnswer(invocation -> {
+            if (deliver) {
+                byte[] body = invocation.<String>getArgument(1).getBytes(StandardCharsets.UTF_8);
+                for (CachePenetrationGuard node : nodes) {
+                    node.onMessage(new DefaultMessage(CACHE_BLOOM_CHANNEL.getBytes(StandardCharsets.UTF_8), body), null);
+                }
+            }
+            return 1L;
+        }).when(stringRedisTemplate).convertAndSend(anyString(), any());
+        ReflectionTestUtils.setField(guard, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(guard, "blogMapper", blogMapper);
+        ReflectionTestUtils.setField(guard, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(guard, "redisMessageListenerContainer", Mockito.mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(guard, "enabled", true);
+        ReflectionTestUtils.setField(guard, "fpp", 0.01);
+        ReflectionTestUtils.setField(guard, "maxMemoryKb", 4096L);
+        ReflectionTestUtils.setField(guard, "growthFactor", 2.0);
+        ReflectionTestUtils.setField(guard, "catchUpInterval", 3600000L);
+        ReflectionTestUtils.invokeMethod(guard, "init");
+        return guard;
+    }
+}
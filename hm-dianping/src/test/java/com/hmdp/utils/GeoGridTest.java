@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * 与逐点计算球面距离的结果对比
+ */
+public class GeoGridTest {
+    private static final double CELL_DEGREES = 0.01;
+    private static final double[] RADII = {30, 500, 3000, 20000};
+    private static final int[] LIMITS = {1, 10, 100, Integer.MAX_VALUE};
+
+    @Test
+    void testDenseAgainstBruteForce() {
+        // 点数多、格子多，主要走按圈扫描和提前结束
+        check(10000, 0.2, 1);
+    }
+
+    @Test
+    void testSparseAgainstBruteForce() {
+        // 点数少，大半径覆盖的格子比已有格子多，走全量扫描
+        check(200, 0.3, 2);
+    }
+
+    @Test
+    void testHighLatitudeAgainstBruteForce() {
+        // 高纬度经度方向的格子很窄，检验圈的最小间距和平面近似的余量
+        Random random = new Random(3);
+        GeoGrid grid = new GeoGrid(CELL_DEGREES);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 0; id < 5000; id++) {
+            put(grid, points, id, 25 + random.nextDouble() * 0.4, 64.8 + random.nextDouble() * 0.4);
+        }
+        queries(grid, points, random, 25.2, 65.0, 0.2, 20);
+    }
+
+    @Test
+    void testBoundary() {
+        // 半径内外紧贴边界的点，各个方向各一对
+        for (double y : new double[]{0, 30, 60, 75}) {
+            GeoGrid grid = new GeoGrid(CELL_DEGREES);
+            double x = 120;
+            double radius = 1000;
+            long id = 0;
+            for (int bearing = 0; bearing < 360; bearing += 15) {
+                double[] inside = destination(x, y, bearing, radius * 0.999);
+                double[] outside = destination(x, y, bearing, radius * 1.001);
+                grid.put(id++, inside[0], inside[1]);
+                grid.put(id++, outside[0], outside[1]);
+            }
+            List<GeoGrid.Hit> hits = grid.search(x, y, radius, Integer.MAX_VALUE);
+            Assertions.assertEquals(24, hits.size(), "y=" + y);
+            hits.forEach(hit -> Assertions.assertEquals(0, hit.getId() % 2));
+        }
+    }
+
+    @Test
+    void testEarlyExitKeepsNearest() {
+        // 中心格子外一圈很近、再外圈很多点，堆满后不能漏掉近处的点
+        GeoGrid grid = new GeoGrid(CELL_DEGREES);
+        Map<Long, double[]> points = new HashMap<>();
+        double x = 120.005;
+        double y = 30.005;
+        long id = 0;
+        // 查询点所在格子的角落以外紧邻的点
+        put(grid, points, id++, 120.0101, 30.0101);
+        put(grid, points, id++, 119.9999, 29.9999);
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            put(grid, points, id++, 120.005 + (random.nextDouble() - 0.5) * 0.2, 30.005 + (random.nextDouble() - 0.5) * 0.2);
+        }
+        for (int limit : new int[]{1, 2, 5, 50}) {
+            assertSame(bruteForce(points, x, y, 5000, limit, null), grid.search(x, y, 5000, limit));
+        }
+    }
+
+    @Test
+    void testRemoveAndMove() {
+        Random random = new Random(4);
+        GeoGrid grid = new GeoGrid(CELL_DEGREES);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 0; id < 3000; id++) {
+            put(grid, points, id, 120 + random.nextDouble() * 0.1, 30 + random.nextDouble() * 0.1);
+        }
+        for (int op = 0; op < 3000; op++) {
+            long id = random.nextInt(3500);
+            if (random.nextInt(3) == 0) {
+                grid.remove(id);
+                points.remove(id);
+            } else {
+                // 移动到其他格子或在同一格子内移动
+                double[] old = points.get(id);
+                double step = random.nextBoolean() ? 0.001 : 0.05;
+                double x = old == null ? 120 + random.nextDouble() * 0.1 : old[0] + (random.nextDouble() - 0.5) * step;
+                double y = old == null ? 30 + random.nextDouble() * 0.1 : old[1] + (random.nextDouble() - 0.5) * step;
+                put(grid, points, id, x, y);
+            }
+        }
+        Assertions.assertEquals(points.size(), grid.size());
+        queries(grid, points, random, 120.05, 30.05, 0.1, 30);
+        // 移走的点只在新位置出现
+        put(grid, points, 10000, 120.01, 30.01);
+        put(grid, points, 10000, 120.09, 30.09);
+        Assertions.assertTrue(grid.search(120.01, 30.01, 10, 10).stream().noneMatch(hit -> hit.getId() == 10000));
+        Assertions.assertTrue(grid.search(120.09, 30.09, 10, 10).stream().anyMatch(hit -> hit.getId() == 10000));
+    }
+
+    @Test
+    void testEmptyAndInvalidLimit() {
+        GeoGrid grid = new GeoGrid(CELL_DEGREES);
+        Assertions.assertTrue(grid.search(120, 30, 1000, 10).isEmpty());
+        grid.put(1, 120, 30);
+        Assertions.assertTrue(grid.search(120, 30, 1000, 0).isEmpty());
+        grid.remove(1);
+        grid.remove(1);
+        Assertions.assertEquals(0, grid.size());
+        Assertions.assertTrue(grid.search(120, 30, 1000, 10).isEmpty());
+    }
+
+    private void check(int count, double span, long seed) {
+        Random random = new Random(seed);
+        GeoGrid grid = new GeoGrid(CELL_DEGREES);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 0; id < count; id++) {
+            put(grid, points, id, 120 + random.nextDouble() * span, 30 + random.nextDouble() * span);
+        }
+        queries(grid, points, random, 120 + span / 2, 30 + span / 2, span, 20);
+    }
+
+    private void queries(GeoGrid grid, Map<Long, double[]> points, Random random,
+                         double centerX, double centerY, double span, int times) {
+        LongPredicate[] filters = {null, id -> id % 7 == 0, id -> id % 500 == 0};
+        for (int i = 0; i < times; i++) {
+            double x = centerX + (random.nextDouble() - 0.5) * span * 1.2;
+            double y = centerY + (random.nextDouble() - 0.5) * span * 1.2;
+            for (double radius : RADII) {
+                for (int limit : LIMITS) {
+                    for (LongPredicate filter : filters) {
+                        assertSame(bruteForce(points, x, y, radius, limit, filter), grid.search(x, y, radius, limit, filter));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void put(GeoGrid grid, Map<Long, double[]> points, long id, double x, double y) {
+        grid.put(id, x, y);
+        points.put(id, new double[]{x, y});
+    }
+
+    private static List<GeoGrid.Hit> bruteForce(Map<Long, double[]> points, double x, double y,
+                                                double radius, int limit, LongPredicate filter) {
+        List<GeoGrid.Hit> hits = new ArrayList<>();
+        points.forEach((id, p) -> {
+            double distance = GeoGrid.distance(x, y, p[0], p[1]);
+            if (distance <= radius && (filter == null || filter.test(id))) {
+                hits.add(new GeoGrid.Hit(id, distance));
+            }
+        });
+        hits.sort(Comparator.comparingDouble(GeoGrid.Hit::getDistance));
+        return hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
+
+    private static void assertSame(List<GeoGrid.Hit> expected, List<GeoGrid.Hit> actual) {
+        Assertions.assertEquals(ids(expected), ids(actual));
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(), 1e-6);
+        }
+    }
+
+    private static List<Long> ids(List<GeoGrid.Hit> hits) {
+        return hits.stream().map(GeoGrid.Hit::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * 从(x, y)沿方位角bearing(度)走distance(m)到达的点
+     */
+    private static double[] destination(double x, double y, double bearing, double distance) {
+        double angular = distance / GeoGrid.EARTH_RADIUS;
+        double lat1 = Math.toRadians(y);
+        double lon1 = Math.toRadians(x);
+        double b = Math.toRadians(bearing);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angular) + Math.cos(lat1) * Math.sin(angular) * Math.cos(b));
+        double lon2 = lon1 + Math.atan2(Math.sin(b) * Math.sin(angular) * Math.cos(lat1),
+                Math.cos(angular) - Math.sin(lat1) * Math.sin(lat2));
+        return new double[]{Math.toDegrees(lon2), Math.toDegrees(lat2)};
+    }
+}
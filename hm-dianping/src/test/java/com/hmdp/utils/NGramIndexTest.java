@@ -0,0 +1,152 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class NGramIndexTest {
+
+    @Test
+    void testTiers() {
+        NGramIndex index = new NGramIndex();
+        index.put(1, "老王火锅", 100);
+        index.put(2, "火锅", 1);
+        index.put(3, "火锅大王", 50);
+        index.put(4, "小火锅店", 200);
+        index.put(5, "烧烤", 300);
+        // 完全匹配 > 前缀匹配 > 子串匹配，同一档内按权重
+        Assertions.assertEquals(Arrays.asList(2L, 3L, 4L, 1L), index.search("火锅", 0, 10));
+        Assertions.assertEquals(Arrays.asList(3L, 2L, 4L, 1L), index.search("火", 0, 10));
+        Assertions.assertEquals(Collections.emptyList(), index.search("火烧", 0, 10));
+    }
+
+    @Test
+    void testNoDuplicates() {
+        NGramIndex index = new NGramIndex();
+        index.put(1, "abxab", 1);
+        index.put(2, "cab", 1);
+        Assertions.assertEquals(Arrays.asList(1L, 2L), index.search("ab", 0, 10));
+    }
+
+    @Test
+    void testExactMatchNotConfusedWithText() {
+        NGramIndex index = new NGramIndex();
+        index.put(1, "ab", 1);
+        index.put(2, "ba", 1);
+        index.put(3, "a", 1);
+        index.put(4, "x=a", 100);
+        index.put(5, "^a", 100);
+        Assertions.assertEquals(Arrays.asList(3L, 1L, 4L, 5L, 2L), index.search("a", 0, 10));
+        Assertions.assertEquals(Collections.singletonList(4L), index.search("=a", 0, 10));
+        Assertions.assertEquals(Collections.singletonList(5L), index.search("^a", 0, 10));
+    }
+
+    @Test
+    void testNormalize() {
+        NGramIndex index = new NGramIndex();
+        index.put(1, "ＫＴＶ 欢唱", 1);
+        Assertions.assertEquals(Collections.singletonList(1L), index.search("ktv欢唱", 0, 10));
+        Assertions.assertEquals(Collections.singletonList(1L), index.search(" Ktv ", 0, 10));
+        Assertions.assertEquals(Collections.emptyList(), index.search("  ", 0, 10));
+    }
+
+    @Test
+    void testPaging() {
+        NGramIndex index = new NGramIndex();
+        for (long id = 1; id <= 25; id++) {
+            index.put(id, "茶" + id, 100 - id);
+        }
+        List<Long> all = new ArrayList<>();
+        for (int offset = 0; offset < 30; offset += 10) {
+            all.addAll(index.search("茶", offset, 10));
+        }
+        Assertions.assertEquals(25, all.size());
+        Assertions.assertEquals(25, new LinkedHashSet<>(all).size());
+        Assertions.assertEquals(Arrays.asList(11L, 12L, 13L), index.search("茶", 10, 3));
+        Assertions.assertEquals(Collections.emptyList(), index.search("茶", 25, 10));
+        Assertions.assertEquals(Collections.emptyList(), index.search("茶", 0, 0));
+    }
+
+    @Test
+    void testRemoveAndUpdate() {
+        NGramIndex index = new NGramIndex();
+        index.put(1, "老王火锅", 1);
+        index.put(2, "火锅", 1);
+        index.remove(2);
+        Assertions.assertEquals(1, index.size());
+        Assertions.assertEquals(Collections.singletonList(1L), index.search("火锅", 0, 10));
+        // 改名后旧名称不再命中
+        index.put(1, "小李烧烤", 1);
+        Assertions.assertEquals(1, index.size());
+        Assertions.assertEquals(Collections.emptyList(), index.search("火锅", 0, 10));
+        Assertions.assertEquals(Collections.singletonList(1L), index.search("烧烤", 0, 10));
+        // 权重变化后重新排序
+        index.put(2, "烧烤", 1);
+        index.put(3, "烧烤店", 10);
+        index.put(4, "烧烤吧", 5);
+        Assertions.assertEquals(Arrays.asList(2L, 3L, 4L, 1L), index.search("烧烤", 0, 10));
+        index.put(4, "烧烤吧", 50);
+        Assertions.assertEquals(Arrays.asList(2L, 4L, 3L, 1L), index.search("烧烤", 0, 10));
+        index.remove(99);
+        Assertions.assertEquals(4, index.size());
+    }
+
+    @Test
+    void testAgainstScan() {
+        String chars = "abcab";
+        String[] queries = {"a", "b", "ab", "ba", "abc", "cab"};
+        Random random = new Random(7);
+        NGramIndex index = new NGramIndex();
+        Map<Long, String> texts = new HashMap<>();
+        Map<Long, Long> weights = new HashMap<>();
+        for (int op = 0; op < 5000; op++) {
+            long id = random.nextInt(300);
+            if (random.nextInt(5) == 0) {
+                index.remove(id);
+                texts.remove(id);
+                weights.remove(id);
+            } else {
+                StringBuilder sb = new StringBuilder();
+                int length = 1 + random.nextInt(6);
+                for (int i = 0; i < length; i++) {
+                    sb.append(chars.charAt(random.nextInt(chars.length())));
+                }
+                long weight = random.nextInt(20);
+                index.put(id, sb.toString(), weight);
+                texts.put(id, sb.toString());
+                weights.put(id, weight);
+            }
+            if (op % 50 == 0) {
+                for (String query : queries) {
+                    Assertions.assertEquals(scan(texts, weights, query), index.search(query, 0, 1000), query);
+                }
+            }
+        }
+    }
+
+    private static List<Long> scan(Map<Long, String> texts, Map<Long, Long> weights, String query) {
+        List<Long> ids = new ArrayList<>(texts.keySet());
+        ids.removeIf(id -> !texts.get(id).contains(query));
+        ids.sort((a, b) -> {
+            int c = Integer.compare(tier(texts.get(a), query), tier(texts.get(b), query));
+            if (c != 0) {
+                return c;
+            }
+            c = Long.compare(weights.get(b), weights.get(a));
+            return c != 0 ? c : Long.compare(a, b);
+        });
+        return ids;
+    }
+
+    private static int tier(String text, String query) {
+        return text.equals(query) ? 0 : text.startsWith(query) ? 1 : 2;
+    }
+}
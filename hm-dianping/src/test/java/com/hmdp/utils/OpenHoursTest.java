@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+public class OpenHoursTest {
+
+    @Test
+    void testRanges() {
+        OpenHours hours = OpenHours.of("11:00-13:50,17:00-20:50");
+        Assertions.assertTrue(hours.isKnown());
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(10, 59)));
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(11, 0)));
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(13, 49)));
+        // 结束时间不算在营业时间内
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(13, 50)));
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(15, 0)));
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(17, 30)));
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(21, 0)));
+    }
+
+    @Test
+    void testOvernight() {
+        OpenHours hours = OpenHours.of("11:30-03:00");
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(11, 30)));
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(23, 59)));
+        Assertions.assertTrue(hours.isOpen(LocalTime.MIDNIGHT));
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(2, 59)));
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(3, 0)));
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(11, 29)));
+        // 开始和结束相同代表全天营业
+        OpenHours allDay = OpenHours.of("08:00-08:00");
+        Assertions.assertTrue(allDay.isOpen(LocalTime.of(7, 59)));
+        Assertions.assertTrue(allDay.isOpen(LocalTime.of(8, 0)));
+    }
+
+    @Test
+    void testEndOfDay() {
+        OpenHours allDay = OpenHours.of("00:00-24:00");
+        Assertions.assertTrue(allDay.isOpen(LocalTime.MIDNIGHT));
+        Assertions.assertTrue(allDay.isOpen(LocalTime.of(23, 59)));
+        OpenHours evening = OpenHours.of("22:00-24:00");
+        Assertions.assertTrue(evening.isOpen(LocalTime.of(23, 59)));
+        Assertions.assertFalse(evening.isOpen(LocalTime.MIDNIGHT));
+        OpenHours early = OpenHours.of("24:00-06:00");
+        Assertions.assertTrue(early.isOpen(LocalTime.of(5, 59)));
+        Assertions.assertFalse(early.isOpen(LocalTime.of(23, 0)));
+    }
+
+    @Test
+    void testSeparatorsAndSpaces() {
+        OpenHours hours = OpenHours.of(" 09:00 - 12:00 ，14:00-18:00");
+        Assertions.assertTrue(hours.isKnown());
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(9, 0)));
+        Assertions.assertTrue(hours.isOpen(LocalTime.of(14, 0)));
+        Assertions.assertFalse(hours.isOpen(LocalTime.of(13, 0)));
+    }
+
+    @Test
+    void testMalformed() {
+        String[] malformed = {null, "", "  ", "全天", "9-18", "09:00", "09:00-18:00-20:00",
+                "25:00-26:00", "09:60-18:00", "24:01-06:00", "-1:00-06:00", "09:00-18:00,", "aa:bb-cc:dd"};
+        for (String openHours : malformed) {
+            OpenHours hours = OpenHours.of(openHours);
+            Assertions.assertFalse(hours.isKnown(), openHours);
+            Assertions.assertFalse(hours.isOpen(LocalTime.NOON), openHours);
+        }
+    }
+
+    @Test
+    void testCached() {
+        Assertions.assertSame(OpenHours.of("10:00-22:00"), OpenHours.of("10:00-22:00"));
+    }
+}
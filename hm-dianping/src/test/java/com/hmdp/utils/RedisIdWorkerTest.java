@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * 雪花模式下workerId租约过期后不能继续生成id
+ */
+public class RedisIdWorkerTest {
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> valueOperations;
+    private RedisIdWorker idWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        valueOperations = Mockito.mock(ValueOperations.class);
+        Mockito.when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenReturn(true);
+        idWorker = new RedisIdWorker();
+        ReflectionTestUtils.setField(idWorker, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(idWorker, "mode", "snowflake");
+        ReflectionTestUtils.invokeMethod(idWorker, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(idWorker, "destroy");
+    }
+
+    @Test
+    void testRefuseAfterLeaseExpiredAndRenewFails() {
+        Assertions.assertTrue(idWorker.nextId("order") > 0);
+        renewResult(new RedisConnectionFailureException("down"));
+        Mockito.when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        // 续期失败但租约未到期，仍可生成id
+        ReflectionTestUtils.invokeMethod(idWorker, "renewWorkerId");
+        Assertions.assertTrue(idWorker.nextId("order") > 0);
+        // 租约到期后拒绝生成id
+        expireLease();
+        Assertions.assertThrows(IllegalStateException.class, () -> idWorker.nextId("order"));
+        // redis恢复后同步续期并继续生成
+        renewResult(1L);
+        Assertions.assertTrue(idWorker.nextId("order") > 0);
+    }
+
+    @Test
+    void testStopUsingStolenWorkerId() {
+        // 租约被其他节点占用，且没有空闲的workerId
+        renewResult(0L);
+        Mockito.when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenReturn(false);
+        ReflectionTestUtils.invokeMethod(idWorker, "renewWorkerId");
+        Assertions.assertThrows(IllegalStateException.class, () -> idWorker.nextId("order"));
+        // 租到新的workerId后恢复
+        Mockito.when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.SECONDS))).thenReturn(true);
+        long id = idWorker.nextId("order");
+        int after = (int) ReflectionTestUtils.getField(idWorker, "workerId");
+        Assertions.assertEquals(after, (id >>> 12) & 1023);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void renewResult(Object result) {
+        Mockito.reset(stringRedisTemplate);
+        Mockito.when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        if (result instanceof RuntimeException) {
+            Mockito.when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any()))
+                    .thenThrow((RuntimeException) result);
+        } else {
+            Mockito.when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(result);
+        }
+    }
+
+    private void expireLease() {
+        ReflectionTestUtils.setField(idWorker, "leaseDeadline", System.nanoTime() - 1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近商铺查询基准测试：比较本地网格索引与redis GEOSEARCH查询最近20个商铺的耗时，只比较空间查询本身，不含商铺数据的读取
+ * <p>
+ * 商铺按固定种子随机分布在杭州市区约30km x 30km的范围内，分10个类型。
+ * 运行：mvn test-compile exec:java -Dexec.mainClass=com.hmdp.utils.ShopGeoBenchmark -Dexec.classpathScope=test，
+ * 加上 -Dbenchmark.redis=redis://:密码@host:6379 同时测试redis GEO（会写入 benchmark:geo:* 并在结束后删除）
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopGeoBenchmark {
+    private static final String KEY_PREFIX = "benchmark:geo:";
+    private static final int TYPES = 10;
+    private static final double MIN_X = 120.0;
+    private static final double MIN_Y = 30.15;
+    private static final double SPAN = 0.3;
+    private static final double RADIUS = 5000;
+    private static final int LIMIT = 20;
+
+    @Param({"100000", "500000"})
+    private int shops;
+
+    private Map<Long, GeoGrid> grids;
+    private StringRedisTemplate redisTemplate;
+    private LettuceConnectionFactory connectionFactory;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        grids = new HashMap<>();
+        Map<Long, Map<String, Point>> members = new HashMap<>();
+        Random random = new Random(42);
+        for (long id = 1; id <= shops; id++) {
+            long typeId = id % TYPES + 1;
+            double x = MIN_X + random.nextDouble() * SPAN;
+            double y = MIN_Y + random.nextDouble() * SPAN;
+            grids.computeIfAbsent(typeId, k -> new GeoGrid(0.01)).put(id, x, y);
+            members.computeIfAbsent(typeId, k -> new HashMap<>()).put(String.valueOf(id), new Point(x, y));
+        }
+        String redisUri = System.getProperty("benchmark.redis");
+        if (redisUri == null) {
+            return;
+        }
+        URI uri = URI.create(redisUri);
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(uri.getHost(), uri.getPort());
+        if (uri.getUserInfo() != null) {
+            configuration.setPassword(RedisPassword.of(uri.getUserInfo().substring(uri.getUserInfo().indexOf(':') + 1)));
+        }
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        members.forEach((typeId, points) -> {
+            redisTemplate.delete(KEY_PREFIX + typeId);
+            redisTemplate.opsForGeo().add(KEY_PREFIX + typeId, points);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (redisTemplate == null) {
+            return;
+        }
+        for (long typeId = 1; typeId <= TYPES; typeId++) {
+            redisTemplate.delete(KEY_PREFIX + typeId);
+        }
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public List<GeoGrid.Hit> localIndex() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long typeId = random.nextLong(TYPES) + 1;
+        return grids.get(typeId).search(MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN, RADIUS, LIMIT);
+    }
+
+    @Benchmark
+    public GeoResults<RedisGeoCommands.GeoLocation<String>> redisGeo() {
+        if (redisTemplate == null) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long typeId = random.nextLong(TYPES) + 1;
+        return redisTemplate.opsForGeo().search(KEY_PREFIX + typeId,
+                GeoReference.fromCoordinate(MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN),
+                new Distance(RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(LIMIT));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder();
+        String redisUri = System.getProperty("benchmark.redis");
+        if (redisUri == null) {
+            options.include(ShopGeoBenchmark.class.getSimpleName() + ".localIndex");
+        } else {
+            options.include(ShopGeoBenchmark.class.getSimpleName()).jvmArgsAppend("-Dbenchmark.redis=" + redisUri);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺名称搜索基准测试：比较n-gram倒排索引与逐条匹配（LIKE '%name%' 在内存中的等价做法）查询一页结果的耗时
+ * <p>
+ * 商铺名称由常见字随机组合生成，关键词为1~3个字。
+ * 运行：mvn test-compile exec:java -Dexec.mainClass=com.hmdp.utils.ShopNameSearchBenchmark -Dexec.classpathScope=test，
+ * 加上 -Dbenchmark.jdbc=jdbc:mysql://host:3306/hmdp?user=root&password=xxx 同时测试现有的LIKE分页查询（只读tb_shop，不写入数据）
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopNameSearchBenchmark {
+    private static final String PREFIXES = "老小大新金阿红蓝绿海山川湘粤蜀京沪杭味香鲜";
+    private static final String MIDDLES = "记家堂坊馆楼阁轩苑居园斋府茶酒面粉饭锅烤串";
+    private static final String SUFFIXES = "餐厅火锅烧烤茶餐厅面馆酒吧咖啡甜品KTV足疗美发健身";
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"100000"})
+    private int shops;
+
+    private NGramIndex index;
+    private String[] names;
+    private long[] sold;
+    private String[] keywords;
+    private Connection connection;
+    private String[] dbKeywords;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        Random random = new Random(42);
+        names = new String[shops];
+        sold = new long[shops];
+        List<NGramIndex.Doc> docs = new ArrayList<>(shops);
+        for (int i = 0; i < shops; i++) {
+            names[i] = randomName(random);
+            sold[i] = random.nextInt(10000);
+            docs.add(new NGramIndex.Doc(i + 1, names[i], sold[i]));
+        }
+        index = new NGramIndex();
+        index.putAll(docs);
+        // 关键词取自已有名称的片段，保证有结果
+        keywords = new String[1024];
+        for (int i = 0; i < keywords.length; i++) {
+            String name = names[random.nextInt(shops)];
+            int length = 1 + random.nextInt(Math.min(3, name.length()));
+            int start = random.nextInt(name.length() - length + 1);
+            keywords[i] = name.substring(start, start + length);
+        }
+        String jdbcUrl = System.getProperty("benchmark.jdbc");
+        if (jdbcUrl == null) {
+            return;
+        }
+        connection = DriverManager.getConnection(jdbcUrl);
+        List<String> realNames = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT name FROM tb_shop LIMIT 1000");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                realNames.add(rs.getString(1));
+            }
+        }
+        dbKeywords = realNames.stream().filter(name -> name != null && name.length() >= 2)
+                .map(name -> name.substring(0, 2)).toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public List<Long> nGramIndex() {
+        return index.search(keywords[ThreadLocalRandom.current().nextInt(keywords.length)], 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Long> scan() {
+        // 与 LIKE '%name%' LIMIT 10 相同，按id顺序逐条匹配，取到一页即结束，不排序
+        String keyword = NGramIndex.normalize(keywords[ThreadLocalRandom.current().nextInt(keywords.length)]);
+        List<Long> ids = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < names.length && ids.size() < PAGE_SIZE; i++) {
+            if (NGramIndex.normalize(names[i]).contains(keyword)) {
+                ids.add((long) i + 1);
+            }
+        }
+        return ids;
+    }
+
+    @Benchmark
+    public List<Long> mysqlLike() throws SQLException {
+        if (connection == null || dbKeywords.length == 0) {
+            return null;
+        }
+        String keyword = dbKeywords[ThreadLocalRandom.current().nextInt(dbKeywords.length)];
+        List<Long> ids = new ArrayList<>(PAGE_SIZE);
+        // 与原接口相同：COUNT(*) 加分页查询
+        try (PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) FROM tb_shop WHERE name LIKE ?")) {
+            count.setString(1, "%" + keyword + "%");
+            count.executeQuery().close();
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM tb_shop WHERE name LIKE ? LIMIT ?")) {
+            statement.setString(1, "%" + keyword + "%");
+            statement.setInt(2, PAGE_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(PREFIXES.charAt(random.nextInt(PREFIXES.length())));
+        sb.append(MIDDLES.charAt(random.nextInt(MIDDLES.length())));
+        if (random.nextBoolean()) {
+            sb.append(MIDDLES.charAt(random.nextInt(MIDDLES.length())));
+        }
+        int start = random.nextInt(SUFFIXES.length() - 2);
+        sb.append(SUFFIXES, start, start + 2 + random.nextInt(2));
+        sb.append('(').append(random.nextInt(500)).append("店)");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder();
+        String jdbcUrl = System.getProperty("benchmark.jdbc");
+        if (jdbcUrl == null) {
+            options.include(ShopNameSearchBenchmark.class.getSimpleName() + ".(nGramIndex|scan)");
+        } else {
+            options.include(ShopNameSearchBenchmark.class.getSimpleName()).jvmArgsAppend("-Dbenchmark.jdbc=" + jdbcUrl);
+        }
+        new Runner(options.build()).run();
+    }
+}